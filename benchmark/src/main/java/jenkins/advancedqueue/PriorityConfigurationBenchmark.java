@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import hudson.model.Descriptor.FormException;
+import hudson.model.FreeStyleProject;
+import hudson.model.ListView;
+import hudson.model.Queue.WaitingItem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.advancedqueue.benchmark.JenkinsState;
+import jenkins.advancedqueue.priority.PriorityStrategy;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PriorityConfiguration#getPriority(hudson.model.Queue.Item, PriorityConfigurationCallback)}
+ * with <code>jobGroups</code> JobGroups spread over <code>views</code> Views.
+ * <p>
+ * Every Job is added to one View and every JobGroup filters on the last digit of the Job name, so
+ * most Jobs are evaluated against several JobGroups and Views before a match is found, and some are
+ * not matched at all and get the default priority. After the first round the JobGroups are resolved
+ * from the {@link JobGroupCache}, unless <code>coldCaches</code> invalidates it (and with it the
+ * cached decisions) before every call.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PriorityConfigurationBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int jobGroups;
+
+	@Param({ "1", "10", "50" })
+	public int views;
+
+	// Invalidates the cached JobGroups and decisions before every call to measure a cold resolution
+	@Param({ "false", "true" })
+	public boolean coldCaches;
+
+	private WaitingItem[] items;
+
+	private List<JobGroup> savedJobGroups;
+
+	@State(Scope.Thread)
+	public static class Cursor implements PriorityConfigurationCallback {
+
+		int next;
+
+		int priority;
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority) {
+			this.priority = priority;
+			return this;
+		}
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority, int jobGroupId, PriorityStrategy reason) {
+			this.priority = priority;
+			return this;
+		}
+
+		public PriorityConfigurationCallback addDecisionLog(int indent, String log) {
+			return this;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(JenkinsState jenkins) throws IOException, FormException {
+		Jenkins instance = Jenkins.getInstance();
+		ListView[] listViews = new ListView[views];
+		for (int i = 0; i < views; i++) {
+			listViews[i] = new ListView("view-" + i, instance);
+			instance.addView(listViews[i]);
+		}
+		List<FreeStyleProject> projects = jenkins.getProjects();
+		for (int i = 0; i < projects.size(); i++) {
+			listViews[i % views].add(projects.get(i));
+		}
+		List<JobGroup> configured = PriorityConfiguration.get().getJobGroups();
+		savedJobGroups = new ArrayList<JobGroup>(configured);
+		configured.clear();
+		for (int i = 0; i < jobGroups; i++) {
+			JSONObject jobGroup = new JSONObject();
+			jobGroup.put("priority", 1 + i % 5);
+			jobGroup.put("view", "view-" + (i % views));
+			jobGroup.put("runExclusive", "false");
+			JSONObject jobFilter = new JSONObject();
+			jobFilter.put("jobPattern", "job-\\d*" + (i % 10));
+			jobGroup.put("useJobFilter", jobFilter);
+			configured.add(JobGroup.newInstance(null, jobGroup, i));
+		}
+		JobGroupCache.get().invalidate();
+		items = jenkins.createWaitingItems(projects.size()).toArray(new WaitingItem[0]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		List<JobGroup> configured = PriorityConfiguration.get().getJobGroups();
+		configured.clear();
+		configured.addAll(savedJobGroups);
+		JobGroupCache.get().invalidate();
+	}
+
+	@Setup(Level.Invocation)
+	public void invalidateCaches() {
+		if (coldCaches) {
+			JobGroupCache.get().invalidate();
+		}
+	}
+
+	@Benchmark
+	public int getPriority(Cursor cursor) {
+		PriorityConfiguration.get().getPriority(items[cursor.next++ % items.length], cursor);
+		return cursor.priority;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.benchmark;
+
+import hudson.model.Action;
+import hudson.model.CauseAction;
+import hudson.model.FreeStyleProject;
+import hudson.model.Cause.UserIdCause;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.WaitingItem;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import jenkins.model.Jenkins;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Runs a {@link JenkinsRule} backed Jenkins for the duration of a benchmark trial and creates the
+ * synthetic Jobs and queue items used by the benchmarks.
+ * <p>
+ * The rule is evaluated on a separate thread that is kept waiting until the trial is torn down, this
+ * way the rule does its normal setup and cleanup while the benchmark threads use
+ * {@link Jenkins#getInstance()}.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+@State(Scope.Benchmark)
+public class JenkinsState {
+
+	/**
+	 * The number of Jobs created, queue items are spread over these Jobs
+	 */
+	@Param({ "100" })
+	public int jobs;
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	private final CountDownLatch stop = new CountDownLatch(1);
+
+	private Thread ruleThread;
+
+	private volatile Throwable failure;
+
+	private final List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+
+	@Setup(Level.Trial)
+	public void startJenkins() throws Exception {
+		final JenkinsRule rule = new JenkinsRule();
+		final Statement waitForTearDown = new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				started.countDown();
+				stop.await();
+			}
+		};
+		ruleThread = new Thread("Benchmark Jenkins") {
+			@Override
+			public void run() {
+				try {
+					rule.apply(waitForTearDown, Description.createTestDescription(JenkinsState.class, "benchmark")).evaluate();
+				} catch (Throwable e) {
+					failure = e;
+				} finally {
+					started.countDown();
+				}
+			}
+		};
+		ruleThread.start();
+		started.await();
+		if (failure != null) {
+			throw new IllegalStateException("Failed to start Jenkins", failure);
+		}
+		for (int i = 0; i < jobs; i++) {
+			projects.add(Jenkins.getInstance().createProject(FreeStyleProject.class, "job-" + i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stopJenkins() throws InterruptedException {
+		stop.countDown();
+		ruleThread.join();
+	}
+
+	public List<FreeStyleProject> getProjects() {
+		return projects;
+	}
+
+	/**
+	 * Creates queue items, started by a user, for the Jobs in a round-robin fashion. Items are not
+	 * added to the Jenkins queue.
+	 * 
+	 * @param count the number of items to create
+	 * @return the created items
+	 */
+	public List<WaitingItem> createWaitingItems(int count) {
+		List<WaitingItem> items = new ArrayList<WaitingItem>(count);
+		for (int i = 0; i < count; i++) {
+			List<Action> actions = Collections.<Action> singletonList(new CauseAction(new UserIdCause()));
+			items.add(new WaitingItem(Calendar.getInstance(), projects.get(i % projects.size()), actions));
+		}
+		return items;
+	}
+
+	/**
+	 * Creates buildable items in a random order
+	 * 
+	 * @param count the number of items to create
+	 * @param seed the seed used for the random order so that all iterations sort the same input
+	 * @return the created items
+	 */
+	public List<BuildableItem> createBuildableItems(int count, long seed) {
+		List<BuildableItem> items = new ArrayList<BuildableItem>(count);
+		for (WaitingItem waitingItem : createWaitingItems(count)) {
+			items.add(new BuildableItem(waitingItem));
+		}
+		Collections.shuffle(items, new Random(seed));
+		return items;
+	}
+
+}
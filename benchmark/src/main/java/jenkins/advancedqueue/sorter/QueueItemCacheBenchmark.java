@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Queue.WaitingItem;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.advancedqueue.benchmark.JenkinsState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link QueueItemCache} operations done for every queue transition and the
+ * {@link StartedJobIndex} lookups done by the views, the cache is pre-filled with
+ * <code>queueSize</code> items. Run with <code>-t</code> to measure
+ * the lookups under contention.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueueItemCacheBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int queueSize;
+
+	private ItemInfo[] cachedItems;
+
+	private ItemInfo[] extraItems;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(JenkinsState jenkins) {
+		Random random = new Random(4711);
+		List<WaitingItem> items = jenkins.createWaitingItems(queueSize * 2);
+		cachedItems = new ItemInfo[queueSize];
+		extraItems = new ItemInfo[queueSize];
+		for (int i = 0; i < queueSize; i++) {
+			cachedItems[i] = newItemInfo(items.get(i), random);
+			extraItems[i] = newItemInfo(items.get(queueSize + i), random);
+			QueueItemCache.get().addItem(cachedItems[i]);
+			StartedJobIndex.get().put(cachedItems[i].getJobName(), cachedItems[i]);
+		}
+	}
+
+	private ItemInfo newItemInfo(WaitingItem item, Random random) {
+		ItemInfo itemInfo = new ItemInfo(item);
+		itemInfo.setWeightSelection(1F + random.nextInt(1000) / 10F);
+		return itemInfo;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (ItemInfo itemInfo : cachedItems) {
+			QueueItemCache.get().removeItem(itemInfo.getItemId());
+		}
+	}
+
+	@Benchmark
+	public ItemInfo getItemById(Cursor cursor) {
+		return QueueItemCache.get().getItem(cachedItems[cursor.next++ % queueSize].getItemId());
+	}
+
+	@Benchmark
+	public StartedJobIndex.StartedJob getStartedJob(Cursor cursor) {
+		return StartedJobIndex.get().get(cachedItems[cursor.next++ % queueSize].getJobName());
+	}
+
+	@Benchmark
+	public ItemInfo addAndRemoveItem(Cursor cursor) {
+		ItemInfo itemInfo = extraItems[cursor.next++ % queueSize];
+		QueueItemCache.get().addItem(itemInfo);
+		return QueueItemCache.get().removeItem(itemInfo.getItemId());
+	}
+
+	@Benchmark
+	public int[] getSortedItemIds() {
+		return QueueItemCache.get().getSortedItemIds();
+	}
+
+}
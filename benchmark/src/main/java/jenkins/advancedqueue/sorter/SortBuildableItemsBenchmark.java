@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.WaitingItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.advancedqueue.benchmark.JenkinsState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link AdvancedQueueSorter#sortBuildableItems(List)} for queues where every item already
+ * has its {@link ItemInfo} in the {@link QueueItemCache}, that is the state the queue maintenance
+ * normally sees.
+ * <p>
+ * <code>queuedPerBuildable</code> controls how many items there are in the cache (waiting or blocked)
+ * for every buildable item, this decides if the sorter walks the sorted index or sorts the buildable
+ * items on their own. Each invocation copies the shuffled input before sorting, the copy is linear and
+ * included in the result.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SortBuildableItemsBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int queueSize;
+
+	@Param({ "1", "4" })
+	public int queuedPerBuildable;
+
+	private AdvancedQueueSorter sorter;
+
+	private List<BuildableItem> buildableItems;
+
+	private List<Integer> cachedItemIds = new ArrayList<Integer>();
+
+	@Setup(Level.Trial)
+	public void setUp(JenkinsState jenkins) {
+		sorter = new AdvancedQueueSorter();
+		Random random = new Random(4711);
+		buildableItems = jenkins.createBuildableItems(queueSize, 42);
+		for (BuildableItem item : buildableItems) {
+			addToCache(item, random);
+		}
+		for (WaitingItem item : jenkins.createWaitingItems(queueSize * (queuedPerBuildable - 1))) {
+			addToCache(item, random);
+		}
+	}
+
+	private void addToCache(hudson.model.Queue.Item item, Random random) {
+		ItemInfo itemInfo = new ItemInfo(item);
+		// Few distinct weights gives many ties that are broken on inQueueSince and itemId
+		itemInfo.setWeightSelection(1F + random.nextInt(1000) / 10F);
+		QueueItemCache.get().addItem(itemInfo);
+		cachedItemIds.add(itemInfo.getItemId());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (Integer itemId : cachedItemIds) {
+			QueueItemCache.get().removeItem(itemId);
+		}
+		cachedItemIds.clear();
+	}
+
+	@Benchmark
+	public List<BuildableItem> sortBuildableItems() {
+		List<BuildableItem> items = new ArrayList<BuildableItem>(buildableItems);
+		sorter.sortBuildableItems(items);
+		return items;
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter.strategy;
+
+import java.util.concurrent.TimeUnit;
+
+import jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback;
+import jenkins.advancedqueue.sorter.SorterStrategy;
+import jenkins.advancedqueue.sorter.SorterStrategyCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the weight assignment of the {@link SorterStrategy}s. A queue of <code>queueSize</code>
+ * items is simulated by starting the item that was assigned a weight <code>queueSize</code> calls
+ * earlier, so that the strategies see both new and started items as they do in Jenkins.
+ * <p>
+ * No Jenkins instance is needed for this benchmark.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SorterStrategyBenchmark {
+
+	@Param({ "ABSOLUTE", "FQ", "WFQ" })
+	public String strategy;
+
+	@Param({ "5", "100" })
+	public int numberOfPriorities;
+
+	@Param({ "100", "10000" })
+	public int queueSize;
+
+	private SorterStrategy sorterStrategy;
+
+	private double[] queuedWeights;
+
+	private int next;
+
+	private final Callback callback = new Callback();
+
+	private static class Callback extends AbstractSorterStrategyCallback {
+
+		private int priority;
+
+		private double weight;
+
+		public int getPriority() {
+			return priority;
+		}
+
+		@Override
+		public SorterStrategyCallback setWeightSelection(double weight) {
+			this.weight = weight;
+			return this;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int defaultPriority = (numberOfPriorities + 1) / 2;
+		if ("ABSOLUTE".equals(strategy)) {
+			sorterStrategy = new AbsoluteStrategy(numberOfPriorities, defaultPriority);
+		} else if ("FQ".equals(strategy)) {
+			sorterStrategy = new FQStrategy(numberOfPriorities, defaultPriority);
+		} else if ("WFQ".equals(strategy)) {
+			sorterStrategy = new WFQStrategy(numberOfPriorities, defaultPriority);
+		} else {
+			throw new IllegalArgumentException("Unknown strategy: " + strategy);
+		}
+		queuedWeights = new double[queueSize];
+		for (int i = 0; i < queueSize; i++) {
+			queuedWeights[i] = assignWeight(i);
+		}
+	}
+
+	private double assignWeight(int i) {
+		callback.priority = 1 + (i * 7) % numberOfPriorities;
+		sorterStrategy.onNewItem(null, callback);
+		return callback.weight;
+	}
+
+	@Benchmark
+	public double onNewItem() {
+		int slot = next++ % queueSize;
+		sorterStrategy.onStartedItem(null, queuedWeights[slot]);
+		queuedWeights[slot] = assignWeight(next);
+		return queuedWeights[slot];
+	}
+
+}
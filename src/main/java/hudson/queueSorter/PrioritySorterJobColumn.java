@@ -26,8 +26,8 @@ import hudson.model.Job;
 import hudson.views.ListViewColumn;
 import hudson.views.ListViewColumnDescriptor;
 import jenkins.advancedqueue.PrioritySorterConfiguration;
-import jenkins.advancedqueue.sorter.ItemInfo;
-import jenkins.advancedqueue.sorter.QueueItemCache;
+import jenkins.advancedqueue.sorter.StartedJobIndex;
+import jenkins.advancedqueue.sorter.StartedJobIndex.StartedJob;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -51,11 +51,11 @@ public class PrioritySorterJobColumn extends ListViewColumn {
 				return Integer.toString(PrioritySorterDefaults.getDefault());
 			}
 		} else {
-			ItemInfo itemInfo = QueueItemCache.get().getItem(job.getName());
-			if(itemInfo == null) {
+			StartedJob startedJob = StartedJobIndex.get().get(job.getFullName());
+			if(startedJob == null) {
 				return "Pending"; // You need to run a Job
 			}
-			return Integer.toString(itemInfo.getPriority());
+			return Integer.toString(startedJob.getPriority());
 		}
 	}
 
@@ -24,14 +24,13 @@
 
 package hudson.queueSorter;
 
-import java.util.List;
-
 import groovy.lang.Buildable;
 import hudson.model.HealthReport;
 import hudson.model.AbstractProject;
 import hudson.model.Job;
 import hudson.model.Queue.BuildableItem;
 import hudson.model.Run;
+import jenkins.advancedqueue.BuildDurationStatistics;
 
 /**
  * Static utility methods for the Priority Sorter plugin
@@ -78,13 +77,20 @@ public class PrioritySorterUtils {
 
     /**
      * Gets the average build duration
+     * <p>
+     * The average is read from the {@link BuildDurationStatistics} so the
+     * build history of the job is not loaded, a job not yet known to the
+     * statistics is reported as unknown until it has been warmed up. The
+     * average is the mean of the builds in the statistics, i.e. the most
+     * recent builds when the job was warmed up and all builds completed
+     * since, {@code minBuilds} is still compared with all builds of the job.
+     * </p>
      * 
      * @param buildable
      *            Buildable Item
      * @return Average Duration if at least {@code minBuilds} present, otherwise
      *         -1
      */
-    @SuppressWarnings("rawtypes")
     static long getAverageBuildDuration(BuildableItem buildable, int minBuilds) {
         if (!(buildable.task instanceof Job)) {
             // Assume this is rare, if this happens then average duration is -1
@@ -92,28 +98,42 @@ public class PrioritySorterUtils {
             return -1;
         }
 
-        // Maybe there is a more elegant way of doing this but Java generics
-        // are somewhat clunky in this regard
         Job<?, ?> job = (Job<?, ?>) buildable.task;
-        List<?> builds = job.getBuilds();
+        BuildDurationStatistics.Stats stats = BuildDurationStatistics.get().getStats(job);
 
-        // Collect run durations
-        long totalDuration = 0;
-        long runCount = 0;
-        for (Object build : builds) {
-            if (build instanceof Run) {
-                runCount++;
-                totalDuration += ((Run) build).getDuration();
-            }
-        }
+        if (stats == null || stats.getCount() == 0)
+            return -1;
 
         // Don't calculate average for jobs with few builds because their
         // average build time is unlikely to be accurate since they likely
-        // reflect new projects whose contents may be in flux
-        if (runCount < minBuilds)
+        // reflect new projects whose contents may be in flux. The statistics
+        // only start from the most recent builds so count the builds of the
+        // job if they hold fewer than minBuilds
+        if (stats.getCount() < minBuilds && countBuilds(job, minBuilds) < minBuilds)
             return -1;
 
-        return totalDuration / runCount;
+        return (long) stats.getMean();
+    }
+
+    /**
+     * Counts the builds of a job, newest first, stops at the limit so older
+     * builds are not loaded
+     * 
+     * @param job
+     *            Job
+     * @param limit
+     *            Count to stop at
+     * @return Number of builds up to the limit
+     */
+    static int countBuilds(Job<?, ?> job, int limit) {
+        int count = 0;
+        for (Object build : job.getBuilds()) {
+            if (count >= limit)
+                break;
+            if (build instanceof Run)
+                count++;
+        }
+        return count;
     }
 
     /**
@@ -148,7 +168,7 @@ public class PrioritySorterUtils {
      *            slow
      * @return Priority Boost in the range 0.25 to 4.0
      */
-    static double getPriorityBoostForBuildDuration(double averageDuration, double waitTime, double threshold) {
+    public static double getPriorityBoostForBuildDuration(double averageDuration, double waitTime, double threshold) {
         // If average duration is unknown apply no boost
         if (averageDuration == -1)
             return 1.0d;
@@ -0,0 +1,509 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import static hudson.init.InitMilestone.JOB_LOADED;
+import hudson.Extension;
+import hudson.init.Initializer;
+import hudson.model.Job;
+import hudson.model.PeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps running statistics of the build durations of each Job so that the duration of a Job can be
+ * estimated without reading its build history. The statistics are updated when a build completes,
+ * saved to <code>JENKINS_HOME</code> and, for Jobs not known yet, warmed up in the background from
+ * the most recent builds.
+ * <p>
+ * The saved statistics are loaded in the background at startup, until then no statistics are known so
+ * the queue never waits for the file.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class BuildDurationStatistics {
+
+	private final static Logger LOGGER = Logger.getLogger(BuildDurationStatistics.class.getName());
+
+	static final String FILE_NAME = BuildDurationStatistics.class.getName() + ".bin";
+
+	// Starts the file, changed when the format is changed
+	private static final int MAGIC = 0x42445301;
+
+	/**
+	 * The weight of the latest build in the moving average, set with the system property
+	 * <code>jenkins.advancedqueue.BuildDurationStatistics.alpha</code>
+	 */
+	static final double ALPHA = Double.parseDouble(System.getProperty(BuildDurationStatistics.class.getName() + ".alpha", "0.2"));
+
+	/**
+	 * The number of recent builds read when a Job is warmed up
+	 */
+	static final int WARM_UP_BUILDS = Integer.getInteger(BuildDurationStatistics.class.getName() + ".warmUpBuilds", 20);
+
+	static private BuildDurationStatistics buildDurationStatistics = new BuildDurationStatistics();
+
+	static public BuildDurationStatistics get() {
+		return buildDurationStatistics;
+	}
+
+	/**
+	 * The immutable statistics of a Job, durations are in milliseconds.
+	 */
+	public static class Stats {
+
+		private final long count;
+
+		// Exponentially weighted moving average
+		private final double ewma;
+
+		private final double mean;
+
+		// Sum of squared differences from the mean (Welford)
+		private final double m2;
+
+		Stats(long count, double ewma, double mean, double m2) {
+			this.count = count;
+			this.ewma = ewma;
+			this.mean = mean;
+			this.m2 = m2;
+		}
+
+		Stats add(long duration) {
+			if (count == 0) {
+				return new Stats(1, duration, duration, 0D);
+			}
+			long newCount = count + 1;
+			double delta = duration - mean;
+			double newMean = mean + delta / newCount;
+			return new Stats(newCount, ewma + ALPHA * (duration - ewma), newMean, m2 + delta * (duration - newMean));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the moving average, recent builds weigh more, used as the expected duration
+		 */
+		public double getEwma() {
+			return ewma;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getVariance() {
+			return count < 2 ? 0D : m2 / (count - 1);
+		}
+
+		public double getStandardDeviation() {
+			return Math.sqrt(getVariance());
+		}
+
+	}
+
+	/**
+	 * The builds that complete while a Job is warmed up, they are added after the builds read from
+	 * the build history.
+	 */
+	static class WarmUp {
+
+		private final List<long[]> completedBuilds = new ArrayList<long[]>();
+
+		private boolean done = false;
+
+		/**
+		 * @return <code>false</code> if the warm up is done and the build must be recorded directly
+		 */
+		synchronized boolean offer(int buildNumber, long duration) {
+			if (done) {
+				return false;
+			}
+			completedBuilds.add(new long[] { buildNumber, duration });
+			return true;
+		}
+
+	}
+
+	static private final Stats EMPTY = new Stats(0, 0D, 0D, 0D);
+
+	private final ConcurrentMap<String, Stats> jobName2stats = new ConcurrentHashMap<String, Stats>();
+
+	// The Jobs waiting to be warmed up in the background
+	private final ConcurrentMap<String, WarmUp> warmingUp = new ConcurrentHashMap<String, WarmUp>();
+
+	private volatile boolean loaded = false;
+
+	private volatile boolean dirty = false;
+
+	private ExecutorService executor;
+
+	BuildDurationStatistics() {
+	}
+
+	/**
+	 * @param job the Job
+	 * @return the statistics of the Job or <code>null</code> if not known yet, the Job is then warmed
+	 *         up in the background unless the saved statistics are still being loaded
+	 */
+	public Stats getStats(Job<?, ?> job) {
+		if (!loaded) {
+			return null;
+		}
+		Stats stats = jobName2stats.get(job.getFullName());
+		if (stats == null) {
+			warmUp(job);
+		}
+		return stats;
+	}
+
+	Stats getStats(String jobFullName) {
+		return jobName2stats.get(jobFullName);
+	}
+
+	/**
+	 * Adds a completed build to the statistics of its Job, a Job not known yet is warmed up first so
+	 * that its statistics always start from its build history.
+	 */
+	public void record(Run<?, ?> run) {
+		load();
+		Job<?, ?> job = run.getParent();
+		if (jobName2stats.get(job.getFullName()) == null) {
+			warmUp(job);
+		}
+		record(job.getFullName(), run.getNumber(), run.getDuration());
+	}
+
+	/**
+	 * Adds the duration of a completed build to the statistics of the Job, while the Job is warmed up
+	 * the build is added when the warm up is done.
+	 */
+	void record(String jobFullName, int buildNumber, long duration) {
+		WarmUp warmUp = warmingUp.get(jobFullName);
+		if (warmUp != null && warmUp.offer(buildNumber, duration)) {
+			return;
+		}
+		while (true) {
+			Stats current = jobName2stats.get(jobFullName);
+			if (current == null) {
+				if (jobName2stats.putIfAbsent(jobFullName, EMPTY.add(duration)) == null) {
+					break;
+				}
+			} else if (jobName2stats.replace(jobFullName, current, current.add(duration))) {
+				break;
+			}
+		}
+		dirty = true;
+	}
+
+	public void remove(String jobFullName) {
+		if (jobName2stats.remove(jobFullName) != null) {
+			dirty = true;
+		}
+	}
+
+	void rename(String oldFullName, String newFullName) {
+		Stats stats = jobName2stats.remove(oldFullName);
+		if (stats != null) {
+			jobName2stats.put(newFullName, stats);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return the number of Jobs with statistics
+	 */
+	public int size() {
+		return jobName2stats.size();
+	}
+
+	private void warmUp(final Job<?, ?> job) {
+		final String jobFullName = job.getFullName();
+		final WarmUp warmUp = startWarmUp(jobFullName);
+		if (warmUp == null) {
+			return;
+		}
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				Stats history = null;
+				Set<Integer> historyBuilds = new HashSet<Integer>();
+				try {
+					history = readRecentBuilds(job, historyBuilds);
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Failed to read the build durations of " + jobFullName, e);
+				} finally {
+					completeWarmUp(jobFullName, warmUp, history, historyBuilds);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the new warm up or <code>null</code> if the Job is already warmed up
+	 */
+	WarmUp startWarmUp(String jobFullName) {
+		WarmUp warmUp = new WarmUp();
+		if (warmingUp.putIfAbsent(jobFullName, warmUp) != null) {
+			return null;
+		}
+		return warmUp;
+	}
+
+	/**
+	 * Merges the builds read from the build history with what is already known about the Job and
+	 * then adds the builds completed during the warm up that were not read from the history.
+	 * Builds completing meanwhile wait for the merge to finish so none is lost.
+	 * 
+	 * @param history the statistics of the recent builds or <code>null</code> if they could not be
+	 *            read
+	 * @param historyBuilds the numbers of the builds in the history
+	 */
+	void completeWarmUp(String jobFullName, WarmUp warmUp, Stats history, Set<Integer> historyBuilds) {
+		synchronized (warmUp) {
+			warmUp.done = true;
+			// Known if loaded from disk or warmed up by a concurrent warm up, it then already holds
+			// the history
+			if (history != null && jobName2stats.putIfAbsent(jobFullName, history) == null) {
+				dirty = true;
+			}
+			for (long[] build : warmUp.completedBuilds) {
+				if (history == null || !historyBuilds.contains((int) build[0])) {
+					record(jobFullName, (int) build[0], build[1]);
+				}
+			}
+			warmingUp.remove(jobFullName);
+		}
+	}
+
+	/**
+	 * Reads the last {@link #WARM_UP_BUILDS} completed builds, the builds are loaded newest first so
+	 * older builds are never loaded.
+	 * 
+	 * @param historyBuilds gets the numbers of the builds read
+	 */
+	private static Stats readRecentBuilds(Job<?, ?> job, Set<Integer> historyBuilds) {
+		long[] durations = new long[WARM_UP_BUILDS];
+		int found = 0;
+		for (Run<?, ?> run : job.getBuilds()) {
+			if (found == durations.length) {
+				break;
+			}
+			if (!run.isBuilding()) {
+				historyBuilds.add(run.getNumber());
+				durations[found++] = run.getDuration();
+			}
+		}
+		Stats stats = EMPTY;
+		// Oldest first so that the most recent weigh the most in the moving average
+		for (int i = found - 1; i >= 0; i--) {
+			stats = stats.add(durations[i]);
+		}
+		return stats;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+		}
+		return executor;
+	}
+
+	/**
+	 * Loads the saved statistics on the background thread, before any Job is warmed up.
+	 */
+	@Initializer(after = JOB_LOADED)
+	public static void init() {
+		final BuildDurationStatistics statistics = get();
+		statistics.getExecutor().execute(new Runnable() {
+			public void run() {
+				statistics.load();
+			}
+		});
+	}
+
+	private static File getFile() {
+		return new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+	}
+
+	/**
+	 * Loads the saved statistics unless already done, waits if another thread is loading them.
+	 */
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		synchronized (this) {
+			if (loaded) {
+				return;
+			}
+			try {
+				File file = getFile();
+				if (file.exists()) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+					try {
+						for (Map.Entry<String, Stats> entry : read(in).entrySet()) {
+							// Known if recorded by a thread not waiting for the load
+							jobName2stats.putIfAbsent(entry.getKey(), entry.getValue());
+						}
+					} finally {
+						in.close();
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to read the build duration statistics, they will be warmed up again", e);
+			} finally {
+				loaded = true;
+			}
+		}
+	}
+
+	static void write(Map<String, Stats> jobName2stats, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(jobName2stats.size());
+		for (Map.Entry<String, Stats> entry : jobName2stats.entrySet()) {
+			Stats stats = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeLong(stats.count);
+			out.writeDouble(stats.ewma);
+			out.writeDouble(stats.mean);
+			out.writeDouble(stats.m2);
+		}
+	}
+
+	static Map<String, Stats> read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not build duration statistics or written in an unknown format");
+		}
+		int size = in.readInt();
+		Map<String, Stats> jobName2stats = new HashMap<String, Stats>(size * 2);
+		for (int i = 0; i < size; i++) {
+			String jobName = in.readUTF();
+			jobName2stats.put(jobName, new Stats(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble()));
+		}
+		return jobName2stats;
+	}
+
+	/**
+	 * Saves the statistics if they changed since last saved.
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		// Merge with what is on disk before overwriting it
+		load();
+		dirty = false;
+		File file = getFile();
+		// Written aside and moved in place so that a crash never leaves partial statistics
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				// A copy so that the size matches the entries written
+				write(new HashMap<String, Stats>(jobName2stats), out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// Cannot rename over an existing file on all platforms
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Failed to rename " + tmp + " to " + file);
+				}
+			}
+		} catch (IOException e) {
+			dirty = true;
+			LOGGER.log(Level.WARNING, "Failed to save the build duration statistics", e);
+		}
+	}
+
+	@Extension
+	static public class BuildDurationStatisticsRunListener extends RunListener<Run> {
+
+		@Override
+		public void onCompleted(Run r, TaskListener listener) {
+			get().record(r);
+		}
+
+	}
+
+	@Extension
+	static public class BuildDurationStatisticsItemListener extends FullNameItemListener {
+
+		@Override
+		protected void onDeleted(String fullName) {
+			get().remove(fullName);
+		}
+
+		@Override
+		protected void onRenamed(String oldFullName, String newFullName) {
+			get().rename(oldFullName, newFullName);
+		}
+
+	}
+
+	@Extension
+	static public class BuildDurationStatisticsWork extends PeriodicWork {
+
+		@Override
+		public long getRecurrencePeriod() {
+			return 10 * MIN;
+		}
+
+		@Override
+		protected void doRun() throws Exception {
+			get().save();
+		}
+
+	}
+
+}
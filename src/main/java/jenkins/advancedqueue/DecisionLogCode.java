@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+/**
+ * The steps recorded in the decision log when the priority of an Item is decided. Only the code and
+ * an optional argument is recorded, the text is rendered when the log is read.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public enum DecisionLogCode {
+
+	NOT_A_JOB(0, "Queue.Item is not a Job - Assigning global default priority"),
+	MATRIX_CONFIGURATION(0, "Job is MatrixConfiguration [%s] ..."),
+	MATRIX_PROJECT_FOUND(0, "MatrixProject found in cache, using priority from its last start"),
+	MATRIX_PROJECT_NOT_FOUND(0, "MatrixProject not found in cache, assigning global default priority"),
+	CACHED_DECISION(0, "Using the cached decision for the Job ..."),
+	JOB_PRIORITY(0, "Using priority taken directly from the Job"),
+	GLOBAL_DEFAULT(0, "Assigning global default priority"),
+	NOT_A_TOP_LEVEL_ITEM(0, "Job is not a TopLevelItem [%s] ..."),
+	NO_JOB_GROUP_CACHED(0, "Job is not part of any JobGroup (cached)"),
+	JOB_GROUP_CACHED(0, "Using JobGroup [%s] (cached)"),
+	EVALUATING_JOB_GROUP(0, "Evaluating JobGroup [%s] ..."),
+	EVALUATING_VIEW(1, "Evaluating View [%s] ..."),
+	NOT_USING_FILTER(2, "Not using filter ..."),
+	USING_FILTER(2, "Using filter ..."),
+	FILTER_SYNTAX_ERROR(3, "Filter has syntax error"),
+	MATCHING_FILTER(3, "Job is matching the filter ..."),
+	NOT_MATCHING_FILTER(3, "Job is not matching the filter ..."),
+	EVALUATING_STRATEGIES(2, "Evaluating strategies ..."),
+	EVALUATING_STRATEGY(3, "Evaluating strategy [%s] ..."),
+	STRATEGY_APPLICABLE(4, "Strategy is applicable"),
+	NO_APPLICABLE_STRATEGY(2, "No applicable item independent strategy - Using JobGroup default");
+
+	private final int indent;
+
+	private final String format;
+
+	private DecisionLogCode(int indent, String format) {
+		this.indent = indent;
+		this.format = format;
+	}
+
+	/**
+	 * Implemented by callbacks that record the codes of the decision log and only render the text
+	 * when the log is read.
+	 */
+	public interface Recorder {
+
+		PriorityConfigurationCallback addDecisionLog(DecisionLogCode code, Object argument);
+
+	}
+
+	public int getIndent() {
+		return indent;
+	}
+
+	/**
+	 * Adds this step to the decision log of the callback, callbacks that are not a {@link Recorder}
+	 * get the rendered text.
+	 */
+	public PriorityConfigurationCallback addTo(PriorityConfigurationCallback callback) {
+		return addTo(callback, null);
+	}
+
+	/**
+	 * Adds this step, with an argument for the text of the code, to the decision log of the callback.
+	 */
+	public PriorityConfigurationCallback addTo(PriorityConfigurationCallback callback, Object argument) {
+		if (callback instanceof Recorder) {
+			return ((Recorder) callback).addDecisionLog(this, argument);
+		}
+		return callback.addDecisionLog(indent, render(argument));
+	}
+
+	/**
+	 * @param argument the argument recorded with the code, a {@link PriorityStrategy} is rendered
+	 *            with its display name and a {@link Class} with its name
+	 * @return the text for the code
+	 */
+	public String render(Object argument) {
+		if (argument instanceof PriorityStrategy) {
+			argument = ((PriorityStrategy) argument).getDescriptor().getDisplayName();
+		} else if (argument instanceof Class) {
+			argument = ((Class<?>) argument).getName();
+		}
+		return String.format(format, argument);
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+/**
+ * An {@link ItemListener} for what is kept per full name of a Job, gives the full names of deleted
+ * and renamed Items.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public abstract class FullNameItemListener extends ItemListener {
+
+	@Override
+	public void onDeleted(Item item) {
+		onDeleted(item.getFullName());
+	}
+
+	@Override
+	public void onRenamed(Item item, String oldName, String newName) {
+		onRenamed(getOldFullName(item.getParent().getFullName(), oldName), item.getFullName());
+	}
+
+	/**
+	 * Only the name is known when an Item is renamed, the old Item is in the same parent.
+	 * 
+	 * @param parentFullName the full name of the parent, empty for Jenkins itself
+	 * @param oldName the old name of the Item
+	 * @return the old full name of the Item
+	 */
+	static String getOldFullName(String parentFullName, String oldName) {
+		if (parentFullName == null || parentFullName.length() == 0) {
+			return oldName;
+		}
+		return parentFullName + "/" + oldName;
+	}
+
+	protected abstract void onDeleted(String fullName);
+
+	protected abstract void onRenamed(String oldFullName, String newFullName);
+
+}
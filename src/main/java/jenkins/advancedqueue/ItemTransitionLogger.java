@@ -37,12 +37,21 @@ public class ItemTransitionLogger {
 
 	private final static Logger LOGGER = Logger.getLogger("PrioritySorter.Queue.Items");
 
+	/**
+	 * @return <code>true</code> if the decision log of new items is logged and should be recorded
+	 */
+	static public boolean isDecisionLogEnabled() {
+		return LOGGER.isLoggable(Level.FINER);
+	}
+
 	static public void logNewItem(ItemInfo info) {
 		if (LOGGER.isLoggable(Level.FINER)) {
 			LOGGER.finer("New Item: " + info.toString() + "\n" + info.getDescisionLog());
 		} else {
 			LOGGER.fine("New Item: " + info.toString());
 		}
+		// Not needed once logged
+		info.clearDecisionLog();
 	}
 
 	static public void logBlockedItem(ItemInfo info) {
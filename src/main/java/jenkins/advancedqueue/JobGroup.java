@@ -23,8 +23,13 @@
  */
 package jenkins.advancedqueue;
 
+import hudson.model.Descriptor.FormException;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -44,6 +49,8 @@ import org.kohsuke.stapler.StaplerRequest;
  */
 public class JobGroup {
 
+	private final static Logger LOGGER = Logger.getLogger(JobGroup.class.getName());
+
 	public static class PriorityStrategyHolder {
 		private int id = 0;
 		private PriorityStrategy priorityStrategy;
@@ -81,12 +88,34 @@ public class JobGroup {
 	private boolean runExclusive = false;
 	private boolean useJobFilter = false;
 	private String jobPattern = ".*";
+	// The jobPattern compiled once, null if the pattern has a syntax error
+	transient private Pattern compiledJobPattern = Pattern.compile(jobPattern);
+	private boolean useAging = false;
+	// Comma separated minutes of waiting after which an item is promoted one priority
+	private String agingCurve = "";
+	// The agingCurve parsed once, in milliseconds, empty if the curve is not valid
+	transient private long[] agingThresholds = new long[0];
 	private boolean usePriorityStrategies;
 	private List<JobGroup.PriorityStrategyHolder> priorityStrategies = new ArrayList<JobGroup.PriorityStrategyHolder>();
 
 	private JobGroup() {
 	}
 
+	/**
+	 * Compiles the jobPattern and parses the agingCurve when the JobGroup is loaded since they are
+	 * not persisted
+	 */
+	private Object readResolve() {
+		compileJobPattern();
+		agingThresholds = parseAgingCurve(agingCurve);
+		if (useAging && agingThresholds.length == 0) {
+			// Aging stays configured so that the curve can be corrected
+			LOGGER.log(Level.WARNING, "The aging curve \"{0}\" of JobGroup {1} is not valid, items of the JobGroup are not aged",
+					new Object[] { agingCurve, id });
+		}
+		return this;
+	}
+
 	/**
 	 * @return the id
 	 */
@@ -163,6 +192,73 @@ public class JobGroup {
 	 */
 	public void setJobPattern(String jobPattern) {
 		this.jobPattern = jobPattern;
+		compileJobPattern();
+	}
+
+	/**
+	 * @return the compiled jobPattern or <code>null</code> if the jobPattern has a syntax error
+	 */
+	public Pattern getCompiledJobPattern() {
+		return compiledJobPattern;
+	}
+
+	private void compileJobPattern() {
+		try {
+			compiledJobPattern = jobPattern == null ? null : Pattern.compile(jobPattern);
+		} catch (PatternSyntaxException e) {
+			compiledJobPattern = null;
+		}
+	}
+
+	public boolean isUseAging() {
+		return useAging;
+	}
+
+	public void setUseAging(boolean useAging) {
+		this.useAging = useAging;
+	}
+
+	/**
+	 * @return the minutes of waiting, comma separated, after which an item is promoted one priority
+	 */
+	public String getAgingCurve() {
+		return agingCurve;
+	}
+
+	public void setAgingCurve(String agingCurve) {
+		this.agingCurve = agingCurve;
+		this.agingThresholds = parseAgingCurve(agingCurve);
+	}
+
+	/**
+	 * @return the waiting times, in milliseconds, after which an item is promoted one more priority,
+	 *         empty if aging is not used or the curve is not valid
+	 */
+	public long[] getAgingThresholds() {
+		return useAging && agingThresholds != null ? agingThresholds : new long[0];
+	}
+
+	/**
+	 * @param agingCurve increasing minutes separated by commas, for example "15, 30, 60"
+	 * @return the thresholds in milliseconds or an empty array if the curve is not valid
+	 */
+	static long[] parseAgingCurve(String agingCurve) {
+		if (agingCurve == null || agingCurve.trim().length() == 0) {
+			return new long[0];
+		}
+		String[] minutes = agingCurve.split(",");
+		long[] thresholds = new long[minutes.length];
+		for (int i = 0; i < minutes.length; i++) {
+			try {
+				thresholds[i] = TimeUnit.MINUTES.toMillis(Long.parseLong(minutes[i].trim()));
+			} catch (NumberFormatException e) {
+				return new long[0];
+			}
+			if (thresholds[i] <= 0 || (i > 0 && thresholds[i] <= thresholds[i - 1])) {
+				return new long[0];
+			}
+		}
+		return thresholds;
 	}
 
 	public boolean isUsePriorityStrategies() {
@@ -187,9 +283,10 @@ public class JobGroup {
 	 * @param jobGroupObject JSON object with class description
 	 * @param id ID of the item to be created
 	 * @return created group
+	 * @throws FormException if aging is used and the aging curve is not valid
 	 */
 	// TODO: replace by DataBound Constructor
-	public static JobGroup newInstance(StaplerRequest req, JSONObject jobGroupObject, int id) {
+	public static JobGroup newInstance(StaplerRequest req, JSONObject jobGroupObject, int id) throws FormException {
 		JobGroup jobGroup = new JobGroup();
 		jobGroup.setId(id);
 		jobGroup.setPriority(jobGroupObject.getInt("priority"));
@@ -200,12 +297,18 @@ public class JobGroup {
 			JSONObject jsonObject = jobGroupObject.getJSONObject("useJobFilter");
 			jobGroup.setJobPattern(jsonObject.getString("jobPattern"));
 			// Disable the filter if the pattern is invalid
-			try {
-				Pattern.compile(jobGroup.getJobPattern());
-			} catch (PatternSyntaxException e) {
+			if (jobGroup.getCompiledJobPattern() == null) {
 				jobGroup.setUseJobFilter(false);
 			}
 		}
+		jobGroup.setUseAging(jobGroupObject.has("useAging"));
+		if (jobGroup.isUseAging()) {
+			JSONObject jsonObject = jobGroupObject.getJSONObject("useAging");
+			jobGroup.setAgingCurve(jsonObject.getString("agingCurve"));
+			if (jobGroup.getAgingThresholds().length == 0) {
+				throw new FormException(Messages.JobGroup_invalidAgingCurve(), "agingCurve");
+			}
+		}
 		//
 		jobGroup.setUsePriorityStrategies(jobGroupObject.has("usePriorityStrategies"));
 		if (jobGroup.isUsePriorityStrategies()) {
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.ViewGroup;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the JobGroup resolved for a Job so that the JobGroups and Views only have to be
+ * evaluated once per Job and not for every Queue.Item.
+ * <p>
+ * The cache is keyed on the full name of the Job and is cleared when Items are created, copied,
+ * renamed, deleted or updated, when a {@link ViewGroup} (i.e. the Views) is saved and when the
+ * {@link PriorityConfiguration} or the {@link PrioritySorterConfiguration} is changed.
+ * <p>
+ * The generation of the cache is also used as the configuration version of the priority decisions
+ * cached per Job by {@link PriorityConfiguration}.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class JobGroupCache {
+
+	private final static Logger LOGGER = Logger.getLogger(JobGroupCache.class.getName());
+
+	/**
+	 * Cached for Jobs that are not part of any JobGroup
+	 */
+	static final int NO_JOB_GROUP = -1;
+
+	static private JobGroupCache jobGroupCache = new JobGroupCache();
+
+	static public JobGroupCache get() {
+		return jobGroupCache;
+	}
+
+	private ConcurrentMap<String, Integer> jobName2jobGroupId = new ConcurrentHashMap<String, Integer>();
+
+	// Incremented on every invalidation to detect resolutions that raced with an invalidation
+	private AtomicLong generation = new AtomicLong();
+
+	private JobGroupCache() {
+	}
+
+	/**
+	 * @param jobFullName the full name of a Job
+	 * @return the cached JobGroup id, {@link #NO_JOB_GROUP} if the Job is known not to be part of a
+	 *         JobGroup or <code>null</code> if the Job is not in the cache
+	 */
+	public Integer getJobGroupId(String jobFullName) {
+		return jobName2jobGroupId.get(jobFullName);
+	}
+
+	/**
+	 * @return the generation to pass to {@link #put(String, int, long)}, must be read before the
+	 *         JobGroup is resolved. Changes every time the cache is invalidated.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches a resolved JobGroup id. If the cache was invalidated since the generation was read the
+	 * resolution might be based on the old configuration and is not kept.
+	 * 
+	 * @param jobFullName the full name of the Job
+	 * @param jobGroupId the resolved JobGroup id or {@link #NO_JOB_GROUP}
+	 * @param generation the generation read before the JobGroup was resolved
+	 */
+	public void put(String jobFullName, int jobGroupId, long generation) {
+		if (this.generation.get() != generation) {
+			return;
+		}
+		jobName2jobGroupId.put(jobFullName, jobGroupId);
+		if (this.generation.get() != generation) {
+			jobName2jobGroupId.remove(jobFullName);
+		}
+	}
+
+	public void invalidate() {
+		generation.incrementAndGet();
+		jobName2jobGroupId.clear();
+		LOGGER.log(Level.FINE, "JobGroup cache invalidated");
+	}
+
+	public int size() {
+		return jobName2jobGroupId.size();
+	}
+
+	@Extension
+	static public class JobGroupCacheItemListener extends ItemListener {
+
+		@Override
+		public void onCreated(Item item) {
+			get().invalidate();
+		}
+
+		@Override
+		public void onCopied(Item src, Item item) {
+			get().invalidate();
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			get().invalidate();
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			get().invalidate();
+		}
+
+		@Override
+		public void onUpdated(Item item) {
+			get().invalidate();
+		}
+
+		@Override
+		public void onLoaded() {
+			get().invalidate();
+		}
+
+	}
+
+	@Extension
+	static public class JobGroupCacheSaveableListener extends SaveableListener {
+
+		@Override
+		public void onChange(Saveable o, XmlFile file) {
+			// Views are saved as part of their owner, the priority decisions
+			// cached by PriorityConfiguration depend on both configurations
+			if (o instanceof ViewGroup || o instanceof PriorityConfiguration || o instanceof PrioritySorterConfiguration) {
+				get().invalidate();
+			}
+		}
+
+	}
+
+}
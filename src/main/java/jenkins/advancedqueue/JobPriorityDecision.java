@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import hudson.model.Queue;
+
+import java.util.List;
+
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+/**
+ * The part of the priority decision for a Job that does not depend on the individual Queue.Item,
+ * that is the priority from the Job property or the JobGroup and its item independent
+ * {@link PriorityStrategy}s. The item dependent {@link PriorityStrategy}s that are evaluated before
+ * the remembered outcome are kept and evaluated for every Queue.Item.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+class JobPriorityDecision {
+
+	private final static PriorityStrategy[] NO_STRATEGIES = new PriorityStrategy[0];
+
+	private final long generation;
+
+	private final int priority;
+
+	private final int jobGroupId;
+
+	private final PriorityStrategy reason;
+
+	private final PriorityStrategy[] itemDependentStrategies;
+
+	JobPriorityDecision(long generation, int priority) {
+		this(generation, priority, -1, null, null);
+	}
+
+	JobPriorityDecision(long generation, int priority, int jobGroupId, PriorityStrategy reason,
+			List<PriorityStrategy> itemDependentStrategies) {
+		this.generation = generation;
+		this.priority = priority;
+		this.jobGroupId = jobGroupId;
+		this.reason = reason;
+		if (itemDependentStrategies == null || itemDependentStrategies.isEmpty()) {
+			this.itemDependentStrategies = NO_STRATEGIES;
+		} else {
+			this.itemDependentStrategies = itemDependentStrategies.toArray(new PriorityStrategy[itemDependentStrategies
+					.size()]);
+		}
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	PriorityConfigurationCallback apply(PriorityConfigurationCallback priorityCallback, Queue.Item item,
+			int numberOfPriorities) {
+		for (PriorityStrategy strategy : itemDependentStrategies) {
+			DecisionLogCode.EVALUATING_STRATEGY.addTo(priorityCallback, strategy);
+			int foundPriority = strategy.evaluate(item);
+			if (foundPriority != PriorityStrategy.NOT_APPLICABLE) {
+				DecisionLogCode.STRATEGY_APPLICABLE.addTo(priorityCallback);
+				if (foundPriority > 0 && foundPriority <= numberOfPriorities) {
+					return priorityCallback.setPrioritySelection(foundPriority, jobGroupId, strategy);
+				}
+			}
+		}
+		return priorityCallback.setPrioritySelection(priority, jobGroupId, reason);
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+/**
+ * Keeps the {@link JobPriorityDecision} per full name of a Job. Only decisions made in the current
+ * generation of the {@link JobGroupCache} are returned and all decisions are dropped when the
+ * generation changes. The cache is a {@link SecondChanceCache}, the capacity is set with the system
+ * property <code>jenkins.advancedqueue.JobPriorityDecisionCache.capacity</code>.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+class JobPriorityDecisionCache {
+
+	static final int DEFAULT_CAPACITY = 10000;
+
+	private final JobGroupCache jobGroupCache;
+
+	private final SecondChanceCache<JobPriorityDecision> jobName2decision;
+
+	// The generation of the JobGroupCache the cached decisions were made in
+	private long generation;
+
+	JobPriorityDecisionCache(JobGroupCache jobGroupCache) {
+		this(jobGroupCache, Integer.getInteger(JobPriorityDecisionCache.class.getName() + ".capacity", DEFAULT_CAPACITY));
+	}
+
+	JobPriorityDecisionCache(JobGroupCache jobGroupCache, int capacity) {
+		this.jobGroupCache = jobGroupCache;
+		this.jobName2decision = new SecondChanceCache<JobPriorityDecision>(capacity);
+		this.generation = jobGroupCache.getGeneration();
+	}
+
+	/**
+	 * @param jobFullName the full name of a Job
+	 * @return the decision or <code>null</code> if the Job has no decision in the current generation
+	 */
+	JobPriorityDecision get(String jobFullName) {
+		JobPriorityDecision decision = jobName2decision.get(jobFullName);
+		if (decision == null || decision.getGeneration() != jobGroupCache.getGeneration()) {
+			return null;
+		}
+		return decision;
+	}
+
+	/**
+	 * Caches a decision, a decision made in an older generation is not kept.
+	 */
+	synchronized void put(String jobFullName, JobPriorityDecision decision) {
+		long currentGeneration = jobGroupCache.getGeneration();
+		if (decision.getGeneration() != currentGeneration) {
+			return;
+		}
+		if (generation != currentGeneration) {
+			jobName2decision.clear();
+			generation = currentGeneration;
+		}
+		jobName2decision.put(jobFullName, decision);
+		if (jobGroupCache.getGeneration() != currentGeneration) {
+			jobName2decision.remove(jobFullName);
+		}
+	}
+
+	void remove(String jobFullName) {
+		jobName2decision.remove(jobFullName);
+	}
+
+	int size() {
+		return jobName2decision.size();
+	}
+
+}
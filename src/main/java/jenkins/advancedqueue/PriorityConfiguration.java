@@ -40,6 +40,7 @@ import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -52,10 +53,15 @@ import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
+import jenkins.advancedqueue.metrics.WaitTimes;
 import jenkins.advancedqueue.priority.PriorityStrategy;
 import jenkins.advancedqueue.sorter.ItemInfo;
 import jenkins.advancedqueue.sorter.QueueItemCache;
+import jenkins.advancedqueue.sorter.QueueJsonWriter;
+import jenkins.advancedqueue.sorter.StartedJobIndex;
+import jenkins.advancedqueue.sorter.StartedJobIndex.StartedJob;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
@@ -73,14 +79,21 @@ import org.kohsuke.stapler.StaplerResponse;
 @Extension
 public class PriorityConfiguration extends Descriptor<PriorityConfiguration> implements RootAction, Describable<PriorityConfiguration> {
 
+	static final int DEFAULT_QUEUE_PAGE_SIZE = 100;
+
+	static final int MAX_QUEUE_PAGE_SIZE = 1000;
+
 	private final static Logger LOGGER = Logger.getLogger(PriorityConfiguration.class.getName());
 
 	transient private Map<Integer, JobGroup> id2jobGroup;
+	// The item independent part of the priority decision per Job full name
+	transient private JobPriorityDecisionCache jobName2decision;
 	private List<JobGroup> jobGroups;
 
 	public PriorityConfiguration() {
 		super(PriorityConfiguration.class);
 		jobGroups = new LinkedList<JobGroup>();
+		jobName2decision = new JobPriorityDecisionCache(JobGroupCache.get());
 		load();
 		//
 		Collections.sort(jobGroups, new Comparator<JobGroup>() {
@@ -156,9 +169,11 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 		return items;
 	}
 
-	public void doPriorityConfigSubmit(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
-		jobGroups = new LinkedList<JobGroup>();
-		id2jobGroup = new HashMap<Integer, JobGroup>();
+	public void doPriorityConfigSubmit(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException,
+			FormException {
+		// Built aside so that a rejected form leaves the configuration unchanged
+		List<JobGroup> newJobGroups = new LinkedList<JobGroup>();
+		Map<Integer, JobGroup> newId2jobGroup = new HashMap<Integer, JobGroup>();
 		//
 		String parameter = req.getParameter("json");
 		JSONObject jobGroupsObject = JSONObject.fromObject(parameter);
@@ -170,13 +185,97 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 				break;
 			}
 			JobGroup jobGroup = JobGroup.newInstance(req, jobGroupObject, id++);
-			jobGroups.add(jobGroup);
-			id2jobGroup.put(jobGroup.getId(), jobGroup);
+			newJobGroups.add(jobGroup);
+			newId2jobGroup.put(jobGroup.getId(), jobGroup);
 		}
+		jobGroups = newJobGroups;
+		id2jobGroup = newId2jobGroup;
+		JobGroupCache.get().invalidate();
+		// The ids of the JobGroups are given again
+		WaitTimes.get().clearPerJobGroup();
 		save();
 		rsp.sendRedirect(Jenkins.getInstance().getRootUrl());
 	}
 
+	public WaitTimes getWaitTimes() {
+		return WaitTimes.get();
+	}
+
+	/**
+	 * Serves the wait time percentiles per priority and per JobGroup as JSON.
+	 */
+	public void doWaitTimes(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+		rsp.setContentType("application/json;charset=UTF-8");
+		WaitTimes.get().toJSON().write(rsp.getWriter());
+	}
+
+	/**
+	 * Serves a page of the sorted queue as JSON, the page is streamed from the sorted index of the
+	 * {@link QueueItemCache} without copying or sorting the queue.
+	 * <p>
+	 * Parameters are <code>start</code> (items to skip), <code>after</code> (itemId to continue
+	 * after, the <code>next</code> value of the previous page), <code>limit</code> (at most
+	 * {@value #MAX_QUEUE_PAGE_SIZE}) and <code>fields</code> (comma separated, default all).
+	 * <p>
+	 * Only items the caller may read are listed or accepted as <code>after</code>.
+	 */
+	public void doQueue(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+		QueueJsonWriter.ItemFilter filter = new ReadableItemFilter();
+		QueueJsonWriter writer;
+		ItemInfo after = null;
+		try {
+			int start = getIntParameter(req, "start", 0);
+			int limit = Math.min(getIntParameter(req, "limit", DEFAULT_QUEUE_PAGE_SIZE), MAX_QUEUE_PAGE_SIZE);
+			writer = new QueueJsonWriter(QueueJsonWriter.Field.parse(req.getParameter("fields")), start, limit);
+			String afterParameter = req.getParameter("after");
+			if (afterParameter != null) {
+				after = QueueItemCache.get().getItem(Integer.parseInt(afterParameter));
+				if (after == null || !filter.isVisible(after)) {
+					rsp.sendError(HttpServletResponse.SC_GONE, "Item " + afterParameter + " is no longer in the queue");
+					return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		rsp.setContentType("application/json;charset=UTF-8");
+		writer.write(QueueItemCache.get().getSortedItems(after), filter, rsp.getWriter());
+	}
+
+	/**
+	 * Lets through the items whose task the current user may read, tasks that are not items (and so
+	 * have no permissions) are always readable. The permission is checked once per job and request,
+	 * on the job found by name so that the queue is not locked for every item.
+	 */
+	private static class ReadableItemFilter implements QueueJsonWriter.ItemFilter {
+
+		private final Map<String, Boolean> jobName2readable = new HashMap<String, Boolean>();
+
+		public boolean isVisible(ItemInfo itemInfo) {
+			String jobFullName = itemInfo.getJobFullName();
+			if (jobFullName == null) {
+				return true;
+			}
+			Boolean readable = jobName2readable.get(jobFullName);
+			if (readable == null) {
+				// Jobs the user may not discover are not found
+				hudson.model.Item item = Jenkins.getInstance().getItemByFullName(jobFullName);
+				readable = item != null && item.hasPermission(hudson.model.Item.READ);
+				jobName2readable.put(jobFullName, readable);
+			}
+			return readable;
+		}
+
+	}
+
+	private static int getIntParameter(StaplerRequest req, String name, int defaultValue) {
+		String value = req.getParameter(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
 	public Descriptor<PriorityConfiguration> getDescriptor() {
 		return this;
 	}
@@ -192,6 +291,14 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 		return FormValidation.ok();
 	}
 
+	public FormValidation doCheckAgingCurve(@QueryParameter String value) throws IOException, ServletException {
+		// Only asked for when aging is used, an empty curve would not age anything
+		if (JobGroup.parseAgingCurve(value).length == 0) {
+			return FormValidation.error(Messages.JobGroup_invalidAgingCurve());
+		}
+		return FormValidation.ok();
+	}
+
 	public PriorityConfigurationCallback getPriority(Queue.Item item, PriorityConfigurationCallback priorityCallback) {
 		SecurityContext saveCtx = ACL.impersonate(ACL.SYSTEM);
 		try {
@@ -206,7 +313,7 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 		if (!(item.task instanceof Job)) {
 			// Not a job generally this mean that this is a lightweight task so
 			// priority doesn't really matter - returning default priority
-			priorityCallback.addDecisionLog(0, "Queue.Item is not a Job - Assigning global default priority");
+			DecisionLogCode.NOT_A_JOB.addTo(priorityCallback);
 			return priorityCallback.setPrioritySelection(PrioritySorterConfiguration.get().getStrategy().getDefaultPriority());
 		}
 
@@ -217,19 +324,35 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 		// MatrixProject
 		if (job instanceof MatrixConfiguration) {
 			MatrixProject matrixProject = ((MatrixConfiguration) job).getParent();
-			priorityCallback.addDecisionLog(0, "Job is MatrixConfiguration [" + matrixProject.getName() + "] ...");
-			ItemInfo itemInfo = QueueItemCache.get().getItem(matrixProject.getName());
+			DecisionLogCode.MATRIX_CONFIGURATION.addTo(priorityCallback, matrixProject.getName());
+			StartedJob startedJob = StartedJobIndex.get().get(matrixProject.getFullName());
 			// Can be null (for example) at startup when the MatrixBuild got
 			// lost (was running at
 			// restart)
-			if (itemInfo != null) {
-				priorityCallback.addDecisionLog(0, "MatrixProject found in cache, using priority from queue-item [" + itemInfo.getItemId() + "]");
-				return priorityCallback.setPrioritySelection(itemInfo.getPriority(), itemInfo.getJobGroupId(), itemInfo.getPriorityStrategy());
+			if (startedJob != null) {
+				DecisionLogCode.MATRIX_PROJECT_FOUND.addTo(priorityCallback);
+				return priorityCallback.setPrioritySelection(startedJob.getPriority(), startedJob.getJobGroupId(), startedJob.getPriorityStrategy());
 			}
-			priorityCallback.addDecisionLog(0, "MatrixProject not found in cache, assigning global default priority");
+			DecisionLogCode.MATRIX_PROJECT_NOT_FOUND.addTo(priorityCallback);
 			return priorityCallback.setPrioritySelection(PrioritySorterConfiguration.get().getStrategy().getDefaultPriority());
 		}
 
+		int numberOfPriorities = PrioritySorterConfiguration.get().getStrategy().getNumberOfPriorities();
+		String jobFullName = job.getFullName();
+		JobPriorityDecision decision = jobName2decision.get(jobFullName);
+		if (decision != null) {
+			DecisionLogCode.CACHED_DECISION.addTo(priorityCallback);
+			return decision.apply(priorityCallback, item, numberOfPriorities);
+		}
+		decision = getJobPriorityDecision(priorityCallback, job, item, numberOfPriorities);
+		jobName2decision.put(jobFullName, decision);
+		return decision.apply(priorityCallback, item, numberOfPriorities);
+	}
+
+	private JobPriorityDecision getJobPriorityDecision(PriorityConfigurationCallback priorityCallback, Job<?, ?> job,
+			Queue.Item item, int numberOfPriorities) {
+		// Read before anything is evaluated so that a decision based on an old configuration is discarded
+		long generation = JobGroupCache.get().getGeneration();
 		if (PrioritySorterConfiguration.get().getAllowPriorityOnJobs()) {
 			AdvancedQueueSorterJobProperty priorityProperty = job.getProperty(AdvancedQueueSorterJobProperty.class);
 			if (priorityProperty != null && priorityProperty.getUseJobPriority()) {
@@ -237,30 +360,61 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 				if (priority == PriorityCalculationsUtil.getUseDefaultPriorityPriority()) {
 					priority = PrioritySorterConfiguration.get().getStrategy().getDefaultPriority();
 				}
-				priorityCallback.addDecisionLog(0, "Using priority taken directly from the Job");
-				return priorityCallback.setPrioritySelection(priority);
+				DecisionLogCode.JOB_PRIORITY.addTo(priorityCallback);
+				return new JobPriorityDecision(generation, priority);
 			}
 		}
 		//
 		JobGroup jobGroup = getJobGroup(priorityCallback, job);
 		if (jobGroup != null) {
-			return getPriorityForJobGroup(priorityCallback, jobGroup, item);
+			return getPriorityForJobGroup(priorityCallback, jobGroup, item, generation, numberOfPriorities);
 		}
 		//
-		priorityCallback.addDecisionLog(0, "Assigning global default priority");
-		return priorityCallback.setPrioritySelection(PrioritySorterConfiguration.get().getStrategy().getDefaultPriority());
+		DecisionLogCode.GLOBAL_DEFAULT.addTo(priorityCallback);
+		return new JobPriorityDecision(generation, PrioritySorterConfiguration.get().getStrategy().getDefaultPriority());
+	}
+
+	/**
+	 * Forgets the cached decision for a Job, used when the outcome of item independent
+	 * {@link PriorityStrategy}s might have changed.
+	 * 
+	 * @param jobFullName the full name of the Job
+	 */
+	public void invalidateDecision(String jobFullName) {
+		jobName2decision.remove(jobFullName);
 	}
 
 	public JobGroup getJobGroup(PriorityConfigurationCallback priorityCallback, Job<?, ?> job) {
 		if(!(job instanceof TopLevelItem)) {
-			priorityCallback.addDecisionLog(0, "Job is not a TopLevelItem [" + job.getClass().getName() + "] ...");
+			DecisionLogCode.NOT_A_TOP_LEVEL_ITEM.addTo(priorityCallback, job.getClass());
 			return null;
 		}
+		JobGroupCache jobGroupCache = JobGroupCache.get();
+		String jobFullName = job.getFullName();
+		Integer cachedJobGroupId = jobGroupCache.getJobGroupId(jobFullName);
+		if (cachedJobGroupId != null) {
+			if (cachedJobGroupId == JobGroupCache.NO_JOB_GROUP) {
+				DecisionLogCode.NO_JOB_GROUP_CACHED.addTo(priorityCallback);
+				return null;
+			}
+			JobGroup jobGroup = getJobGroup(cachedJobGroupId);
+			if (jobGroup != null) {
+				DecisionLogCode.JOB_GROUP_CACHED.addTo(priorityCallback, jobGroup.getId());
+				return jobGroup;
+			}
+		}
+		long generation = jobGroupCache.getGeneration();
+		JobGroup jobGroup = resolveJobGroup(priorityCallback, job);
+		jobGroupCache.put(jobFullName, jobGroup == null ? JobGroupCache.NO_JOB_GROUP : jobGroup.getId(), generation);
+		return jobGroup;
+	}
+
+	private JobGroup resolveJobGroup(PriorityConfigurationCallback priorityCallback, Job<?, ?> job) {
 		for (JobGroup jobGroup : jobGroups) {
-			priorityCallback.addDecisionLog(0, "Evaluating JobGroup [" + jobGroup.getId() + "] ...");
+			DecisionLogCode.EVALUATING_JOB_GROUP.addTo(priorityCallback, jobGroup.getId());
 			Collection<View> views = Jenkins.getInstance().getViews();
 			nextView: for (View view : views) {
-				priorityCallback.addDecisionLog(1, "Evaluating View [" + view.getViewName() + "] ...");
+				DecisionLogCode.EVALUATING_VIEW.addTo(priorityCallback, view.getViewName());
 				if (view.getViewName().equals(jobGroup.getView())) {
 					// Now check if the item is actually in the view
 					if (view.contains((TopLevelItem) job)) {
@@ -268,24 +422,24 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 						// If filtering is used but the pattern is empty regard
 						// it as a match all
 						if (!jobGroup.isUseJobFilter() || jobGroup.getJobPattern().trim().isEmpty()) {
-							priorityCallback.addDecisionLog(2, "Not using filter ...");
+							DecisionLogCode.NOT_USING_FILTER.addTo(priorityCallback);
 							return jobGroup;
 						} else {
-							priorityCallback.addDecisionLog(2, "Using filter ...");
+							DecisionLogCode.USING_FILTER.addTo(priorityCallback);
 							// So filtering is on - use the priority if there's
 							// a match
-							try {
-								if (job.getName().matches(jobGroup.getJobPattern())) {
-									priorityCallback.addDecisionLog(3, "Job is matching the filter ...");
-									return jobGroup;
-								} else {
-									priorityCallback.addDecisionLog(3, "Job is not matching the filter ...");
-									continue nextView;
-								}
-							} catch (PatternSyntaxException e) {
+							Pattern jobPattern = jobGroup.getCompiledJobPattern();
+							if (jobPattern == null) {
 								// If the pattern is broken treat this a non
 								// match
-								priorityCallback.addDecisionLog(3, " Filter has syntax error");
+								DecisionLogCode.FILTER_SYNTAX_ERROR.addTo(priorityCallback);
+								continue nextView;
+							}
+							if (jobPattern.matcher(job.getName()).matches()) {
+								DecisionLogCode.MATCHING_FILTER.addTo(priorityCallback);
+								return jobGroup;
+							} else {
+								DecisionLogCode.NOT_MATCHING_FILTER.addTo(priorityCallback);
 								continue nextView;
 							}
 						}
@@ -296,19 +450,26 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 		return null;
 	}
 
-	private PriorityConfigurationCallback getPriorityForJobGroup(PriorityConfigurationCallback priorityCallback, JobGroup jobGroup, Queue.Item item) {
+	private JobPriorityDecision getPriorityForJobGroup(PriorityConfigurationCallback priorityCallback, JobGroup jobGroup,
+			Queue.Item item, long generation, int numberOfPriorities) {
 		int priority = jobGroup.getPriority();
 		PriorityStrategy reason = null;
+		List<PriorityStrategy> itemDependentStrategies = new ArrayList<PriorityStrategy>();
 		if (jobGroup.isUsePriorityStrategies()) {
-			priorityCallback.addDecisionLog(2, "Evaluating strategies ...");
+			DecisionLogCode.EVALUATING_STRATEGIES.addTo(priorityCallback);
 			List<JobGroup.PriorityStrategyHolder> priorityStrategies = jobGroup.getPriorityStrategies();
 			for (JobGroup.PriorityStrategyHolder priorityStrategy : priorityStrategies) {
 				PriorityStrategy strategy = priorityStrategy.getPriorityStrategy();
-				priorityCallback.addDecisionLog(3, "Evaluating strategy [" + strategy.getDescriptor().getDisplayName() + "] ...");
-				if (strategy.isApplicable(item)) {
-					priorityCallback.addDecisionLog(4, "Strategy is applicable");
-					int foundPriority = strategy.getPriority(item);
-					if (foundPriority > 0 && foundPriority <= PrioritySorterConfiguration.get().getStrategy().getNumberOfPriorities()) {
+				if (strategy.isItemDependent()) {
+					// Evaluated for each item by the decision
+					itemDependentStrategies.add(strategy);
+					continue;
+				}
+				DecisionLogCode.EVALUATING_STRATEGY.addTo(priorityCallback, strategy);
+				int foundPriority = strategy.evaluate(item);
+				if (foundPriority != PriorityStrategy.NOT_APPLICABLE) {
+					DecisionLogCode.STRATEGY_APPLICABLE.addTo(priorityCallback);
+					if (foundPriority > 0 && foundPriority <= numberOfPriorities) {
 						priority = foundPriority;
 						reason = strategy;
 						break;
@@ -317,16 +478,34 @@ public class PriorityConfiguration extends Descriptor<PriorityConfiguration> imp
 			}
 		}
 		if (reason == null) {
-			priorityCallback.addDecisionLog(2, "No applicable strategy - Using JobGroup default");
+			DecisionLogCode.NO_APPLICABLE_STRATEGY.addTo(priorityCallback);
 		}
 		if (priority == PriorityCalculationsUtil.getUseDefaultPriorityPriority()) {
 			priority = PrioritySorterConfiguration.get().getStrategy().getDefaultPriority();
 		}
-		return priorityCallback.setPrioritySelection(priority, jobGroup.getId(), reason);
+		return new JobPriorityDecision(generation, priority, jobGroup.getId(), reason, itemDependentStrategies);
 	}
 
 	static public PriorityConfiguration get() {
 		return (PriorityConfiguration) Jenkins.getInstance().getDescriptor(PriorityConfiguration.class);
 	}
 
+	/**
+	 * Deleted and renamed Jobs leave no decisions behind
+	 */
+	@Extension
+	static public class DecisionInvalidatingItemListener extends FullNameItemListener {
+
+		@Override
+		protected void onDeleted(String fullName) {
+			PriorityConfiguration.get().invalidateDecision(fullName);
+		}
+
+		@Override
+		protected void onRenamed(String oldFullName, String newFullName) {
+			PriorityConfiguration.get().invalidateDecision(oldFullName);
+		}
+
+	}
+
 }
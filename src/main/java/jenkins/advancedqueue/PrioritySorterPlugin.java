@@ -29,7 +29,9 @@ import hudson.init.Initializer;
 
 import java.util.logging.Logger;
 
+import jenkins.advancedqueue.metrics.PrioritySorterMetrics;
 import jenkins.advancedqueue.sorter.AdvancedQueueSorter;
+import jenkins.advancedqueue.sorter.QueueSnapshot;
 
 /**
  * Plugin is the staring point of the Priority Sorter Plugin.
@@ -53,6 +55,14 @@ public class PrioritySorterPlugin extends Plugin {
 			LOGGER.info("Sorting existing Queue ...");
 			AdvancedQueueSorter.init();
 		}
+		PrioritySorterMetrics.register();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		QueueSnapshot.saveIfChanged();
+		BuildDurationStatistics.get().save();
+		PrioritySorterMetrics.unregister();
 	}
 
 }
@@ -8,20 +8,37 @@ import hudson.model.listeners.RunListener;
 import hudson.model.queue.CauseOfBlockage;
 import hudson.model.queue.QueueTaskDispatcher;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import jenkins.advancedqueue.metrics.PrioritySorterMetrics;
 import jenkins.advancedqueue.priority.PriorityStrategy;
+import jenkins.advancedqueue.sorter.ItemInfo;
 import jenkins.advancedqueue.sorter.QueueItemCache;
 
+/**
+ * Blocks all other items while builds of a Run Exclusive {@link JobGroup} are running.
+ * <p>
+ * The state is kept lock-free since {@link RunExclusiveDispatcher#canRun(Item)} is called for every
+ * queued item on every maintenance of the queue. Running builds are tracked by
+ * <code>fullName#number</code> together with the id of the exclusive JobGroup they started in, so
+ * that builds of the same group can overlap and several exclusive groups can run at the same time.
+ */
 public class RunExclusiveThrottler {
 
-	static private List<String> exclusiveJobs = Collections.synchronizedList(new ArrayList<String>());
-	static private int exclusiveJobGroupId = -1;
-	static private String exclusiveJobName = "";
-
-	static PriorityConfigurationCallback dummyCallback = new PriorityConfigurationCallback() {
+	// The exclusive JobGroup id of each running exclusive build
+	static private final ConcurrentMap<String, Integer> exclusiveRuns = new ConcurrentHashMap<String, Integer>();
+	// Running exclusive builds per JobGroup id, counters are never removed so increments are never lost
+	static private final ConcurrentMap<Integer, AtomicInteger> runningPerJobGroup = new ConcurrentHashMap<Integer, AtomicInteger>();
+	// Running exclusive builds in total, lets canRun return without lookups when nothing exclusive runs
+	static private final AtomicInteger runningTotal = new AtomicInteger();
+	// One reused cause per exclusive JobGroup
+	static private final ConcurrentMap<Integer, RunExclusiveMode> causes = new ConcurrentHashMap<Integer, RunExclusiveMode>();
+
+	// Records nothing, also not the codes of the decision log so that their text is never rendered
+	private static class DummyCallback implements PriorityConfigurationCallback, DecisionLogCode.Recorder {
 		
 		public PriorityConfigurationCallback setPrioritySelection(int priority, int jobGroupId, PriorityStrategy reason) {
 			return this;
@@ -34,8 +51,81 @@ public class RunExclusiveThrottler {
 		public PriorityConfigurationCallback addDecisionLog(int indent, String log) {
 			return this;
 		}
-	};
+
+		public PriorityConfigurationCallback addDecisionLog(DecisionLogCode code, Object argument) {
+			return this;
+		}
+	}
+
+	static PriorityConfigurationCallback dummyCallback = new DummyCallback();
 	
+	static void onStarted(String runId, int jobGroupId, String jobName) {
+		if (exclusiveRuns.putIfAbsent(runId, jobGroupId) != null) {
+			return;
+		}
+		getCause(jobGroupId).jobName = jobName;
+		getCounter(jobGroupId).incrementAndGet();
+		runningTotal.incrementAndGet();
+	}
+
+	static void onCompleted(String runId) {
+		Integer jobGroupId = exclusiveRuns.remove(runId);
+		if (jobGroupId != null) {
+			getCounter(jobGroupId).decrementAndGet();
+			runningTotal.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @param jobGroupId the JobGroup id of the item or <code>-1</code> if the item has no JobGroup
+	 * @return the cause of a running exclusive JobGroup if the item must wait or <code>null</code> if
+	 *         it can run
+	 */
+	static CauseOfBlockage getCauseOfBlockage(int jobGroupId) {
+		if (runningTotal.get() == 0) {
+			return null;
+		}
+		AtomicInteger running = runningPerJobGroup.get(jobGroupId);
+		if (running != null && running.get() > 0) {
+			return null;
+		}
+		for (Map.Entry<Integer, AtomicInteger> entry : runningPerJobGroup.entrySet()) {
+			if (entry.getValue().get() > 0) {
+				return getCause(entry.getKey());
+			}
+		}
+		// The last exclusive build completed while looking
+		return null;
+	}
+
+	static private AtomicInteger getCounter(int jobGroupId) {
+		AtomicInteger counter = runningPerJobGroup.get(jobGroupId);
+		if (counter == null) {
+			AtomicInteger newCounter = new AtomicInteger();
+			counter = runningPerJobGroup.putIfAbsent(jobGroupId, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+
+	static private RunExclusiveMode getCause(int jobGroupId) {
+		RunExclusiveMode cause = causes.get(jobGroupId);
+		if (cause == null) {
+			RunExclusiveMode newCause = new RunExclusiveMode();
+			cause = causes.putIfAbsent(jobGroupId, newCause);
+			if (cause == null) {
+				cause = newCause;
+			}
+		}
+		return cause;
+	}
+
+	static private String getRunId(Run r) {
+		return r.getParent().getFullName() + "#" + r.getNumber();
+	}
+
 	@Extension
 	static public class RunExclusiveRunListener extends RunListener<Run> {
 
@@ -43,24 +133,25 @@ public class RunExclusiveThrottler {
 		public void onStarted(Run r, TaskListener listener) {
 			JobGroup jobGroup = PriorityConfiguration.get().getJobGroup(dummyCallback, r.getParent());
 			if (jobGroup != null && jobGroup.isRunExclusive()) {
-				exclusiveJobGroupId = jobGroup.getId();
-				exclusiveJobName = r.getParent().getName();
-				exclusiveJobs.add(exclusiveJobName);
+				RunExclusiveThrottler.onStarted(getRunId(r), jobGroup.getId(), r.getParent().getName());
 			}
 		}
 
 		@Override
 		public void onCompleted(Run r, TaskListener listener) {
-			exclusiveJobs.remove(r.getParent().getName());
+			RunExclusiveThrottler.onCompleted(getRunId(r));
 		}
 
 	}
 
 	private static class RunExclusiveMode extends CauseOfBlockage {
 
+		// The last started job in the JobGroup
+		private volatile String jobName = "";
+
 		@Override
 		public String getShortDescription() {
-			return "Run Exclusive (" + exclusiveJobName + ")";
+			return "Run Exclusive (" + jobName + ")";
 		}
 
 	}
@@ -70,12 +161,13 @@ public class RunExclusiveThrottler {
 
 		@Override
 		public CauseOfBlockage canRun(Item item) {
-			if (exclusiveJobs.size() > 0) {
-				if (QueueItemCache.get().getItem(item.id).getJobGroupId() != exclusiveJobGroupId) {
-					return new RunExclusiveMode();
-				}
+			PrioritySorterMetrics.get().recordRunExclusiveCanRun();
+			if (runningTotal.get() == 0) {
+				return null;
 			}
-			return null;
+			// Items not (or no longer) known by the sorter are treated as not belonging to any JobGroup
+			ItemInfo itemInfo = QueueItemCache.get().getItem(item.id);
+			return getCauseOfBlockage(itemInfo == null ? -1 : itemInfo.getJobGroupId());
 		}
 
 	}
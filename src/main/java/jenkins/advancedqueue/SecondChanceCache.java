@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded map from the full name of a Job to what is kept about the Job. When the map is full the
+ * oldest entry that has not been read since it was last passed over is evicted (second chance).
+ * Reads are lock-free, writes are serialized.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class SecondChanceCache<V> {
+
+	private static class Entry<V> {
+
+		private final String jobName;
+
+		private volatile V value;
+
+		// Set when read, gives the entry a second chance before it is evicted
+		private volatile boolean referenced;
+
+		Entry(String jobName, V value) {
+			this.jobName = jobName;
+			this.value = value;
+		}
+
+	}
+
+	private final int capacity;
+
+	private final ConcurrentMap<String, Entry<V>> jobName2entry = new ConcurrentHashMap<String, Entry<V>>();
+
+	// The entries in insertion order, used to pick what to evict. Removed entries are left behind and
+	// skipped or purged later
+	private final Queue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<Entry<V>>();
+
+	// The number of removed entries still in the insertion order
+	private int removedEntries = 0;
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	public SecondChanceCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * @param jobFullName the full name of a Job
+	 * @return the value of the Job or <code>null</code> if not cached
+	 */
+	public V get(String jobFullName) {
+		Entry<V> entry = jobName2entry.get(jobFullName);
+		if (entry == null) {
+			return null;
+		}
+		entry.referenced = true;
+		return entry.value;
+	}
+
+	/**
+	 * Unlike {@link #get(String)} this does not give the entry a second chance.
+	 * 
+	 * @param jobFullName the full name of a Job
+	 * @return <code>true</code> if the Job is cached
+	 */
+	public boolean containsKey(String jobFullName) {
+		return jobName2entry.containsKey(jobFullName);
+	}
+
+	/**
+	 * Replaces any previous value of the Job, evicts an entry if the cache gets full.
+	 */
+	synchronized public void put(String jobFullName, V value) {
+		Entry<V> entry = jobName2entry.get(jobFullName);
+		if (entry != null) {
+			entry.value = value;
+			return;
+		}
+		entry = new Entry<V>(jobFullName, value);
+		jobName2entry.put(jobFullName, entry);
+		insertionOrder.add(entry);
+		while (jobName2entry.size() > capacity) {
+			evictOne();
+		}
+	}
+
+	private void evictOne() {
+		while (true) {
+			Entry<V> candidate = insertionOrder.poll();
+			if (!isCached(candidate)) {
+				removedEntries--;
+			} else if (candidate.referenced) {
+				candidate.referenced = false;
+				insertionOrder.add(candidate);
+			} else {
+				jobName2entry.remove(candidate.jobName);
+				evictions.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	private boolean isCached(Entry<V> entry) {
+		return jobName2entry.get(entry.jobName) == entry;
+	}
+
+	/**
+	 * Removes the entry from the map only, the insertion order is purged once it holds more removed
+	 * entries than the capacity.
+	 */
+	synchronized public void remove(String jobFullName) {
+		if (jobName2entry.remove(jobFullName) != null && ++removedEntries > capacity) {
+			Iterator<Entry<V>> iterator = insertionOrder.iterator();
+			while (iterator.hasNext()) {
+				if (!isCached(iterator.next())) {
+					iterator.remove();
+				}
+			}
+			removedEntries = 0;
+		}
+	}
+
+	synchronized public void clear() {
+		jobName2entry.clear();
+		insertionOrder.clear();
+		removedEntries = 0;
+	}
+
+	/**
+	 * Moves the value of a renamed Job to its new name.
+	 */
+	synchronized public void rename(String oldFullName, String newFullName) {
+		Entry<V> entry = jobName2entry.get(oldFullName);
+		if (entry != null) {
+			remove(oldFullName);
+			put(newFullName, entry.value);
+		}
+	}
+
+	/**
+	 * @return the number of entries in the insertion order, including removed entries not yet purged
+	 */
+	synchronized int getInsertionOrderSize() {
+		return insertionOrder.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of Jobs in the cache
+	 */
+	public int size() {
+		return jobName2entry.size();
+	}
+
+	/**
+	 * @return the number of Jobs evicted since the cache was created
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+}
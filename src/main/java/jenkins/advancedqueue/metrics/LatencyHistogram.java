@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with power of two buckets, bucket <code>i</code> counts the
+ * values in <code>[2^(i-1), 2^i)</code> (bucket 0 counts zeros). Percentiles are reported as the
+ * upper bound of the bucket they fall in, that is with at most a factor two error, which is enough to
+ * spot regressions without keeping the samples.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value a value, typically a duration in nanoseconds, negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0D : sum.get() / (double) n;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile or 0 if nothing is recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * Math.min(100D, Math.max(0D, percentile)) / 100D);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(getUpperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static long getUpperBound(int bucket) {
+		return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * @return the counts of the buckets, bucket <code>i</code> holds values below <code>2^i</code>
+	 */
+	public long[] getBuckets() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	static double toMicros(double nanos) {
+		return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jenkins.advancedqueue.sorter.ItemInfo;
+import jenkins.advancedqueue.sorter.QueueItemCache;
+import jenkins.advancedqueue.sorter.StartedJobIndex;
+
+/**
+ * Collects the metrics of the queue sorting hot paths. Recording is a few atomic updates, the
+ * counts per priority and JobGroup are only calculated when they are read.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class PrioritySorterMetrics implements PrioritySorterMetricsMXBean {
+
+	private final static Logger LOGGER = Logger.getLogger(PrioritySorterMetrics.class.getName());
+
+	static final String OBJECT_NAME = "jenkins.advancedqueue:type=PrioritySorterMetrics";
+
+	static private PrioritySorterMetrics prioritySorterMetrics = new PrioritySorterMetrics();
+
+	static public PrioritySorterMetrics get() {
+		return prioritySorterMetrics;
+	}
+
+	private final LatencyHistogram sortLatency = new LatencyHistogram();
+
+	private final LatencyHistogram newItemLatency = new LatencyHistogram();
+
+	private final AtomicLong sortSkippedCount = new AtomicLong();
+
+	private final AtomicLong runExclusiveCanRunCount = new AtomicLong();
+
+	PrioritySorterMetrics() {
+	}
+
+	public void recordSort(long nanos) {
+		sortLatency.record(nanos);
+	}
+
+	public void recordSortSkipped() {
+		sortSkippedCount.incrementAndGet();
+	}
+
+	public void recordNewItem(long nanos) {
+		newItemLatency.record(nanos);
+	}
+
+	public void recordRunExclusiveCanRun() {
+		runExclusiveCanRunCount.incrementAndGet();
+	}
+
+	public LatencyHistogram getSortLatency() {
+		return sortLatency;
+	}
+
+	public LatencyHistogram getNewItemLatency() {
+		return newItemLatency;
+	}
+
+	public long getSortCount() {
+		return sortLatency.getCount();
+	}
+
+	public double getSortMeanMicros() {
+		return LatencyHistogram.toMicros(sortLatency.getMean());
+	}
+
+	public double getSortP50Micros() {
+		return LatencyHistogram.toMicros(sortLatency.getPercentile(50));
+	}
+
+	public double getSortP99Micros() {
+		return LatencyHistogram.toMicros(sortLatency.getPercentile(99));
+	}
+
+	public double getSortMaxMicros() {
+		return LatencyHistogram.toMicros(sortLatency.getMax());
+	}
+
+	public long getSortSkippedCount() {
+		return sortSkippedCount.get();
+	}
+
+	public long getNewItemCount() {
+		return newItemLatency.getCount();
+	}
+
+	public double getNewItemMeanMicros() {
+		return LatencyHistogram.toMicros(newItemLatency.getMean());
+	}
+
+	public double getNewItemP50Micros() {
+		return LatencyHistogram.toMicros(newItemLatency.getPercentile(50));
+	}
+
+	public double getNewItemP99Micros() {
+		return LatencyHistogram.toMicros(newItemLatency.getPercentile(99));
+	}
+
+	public double getNewItemMaxMicros() {
+		return LatencyHistogram.toMicros(newItemLatency.getMax());
+	}
+
+	public long getRunExclusiveCanRunCount() {
+		return runExclusiveCanRunCount.get();
+	}
+
+	public int getQueueItemCacheSize() {
+		return QueueItemCache.get().size();
+	}
+
+	public int getStartedJobIndexSize() {
+		return StartedJobIndex.get().size();
+	}
+
+	public long getStartedJobIndexEvictions() {
+		return StartedJobIndex.get().getEvictions();
+	}
+
+	public Map<Integer, Integer> getItemsPerPriority() {
+		Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+		for (ItemInfo itemInfo : QueueItemCache.get().getSortedList()) {
+			increment(counts, itemInfo.getPriority());
+		}
+		return counts;
+	}
+
+	public Map<Integer, Integer> getItemsPerJobGroup() {
+		Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+		for (ItemInfo itemInfo : QueueItemCache.get().getSortedList()) {
+			increment(counts, itemInfo.getJobGroupId());
+		}
+		return counts;
+	}
+
+	private static void increment(Map<Integer, Integer> counts, int key) {
+		Integer count = counts.get(key);
+		counts.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, failures are logged and ignored.
+	 */
+	static public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(get(), name);
+			}
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Failed to register the Priority Sorter metrics", e);
+		}
+	}
+
+	static public void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Failed to unregister the Priority Sorter metrics", e);
+		}
+	}
+
+}
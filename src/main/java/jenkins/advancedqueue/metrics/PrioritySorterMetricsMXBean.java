@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the Priority Sorter registered over JMX as
+ * <code>jenkins.advancedqueue:type=PrioritySorterMetrics</code>. Durations are in microseconds,
+ * percentiles are the upper bound of a power of two bucket.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public interface PrioritySorterMetricsMXBean {
+
+	long getSortCount();
+
+	double getSortMeanMicros();
+
+	double getSortP50Micros();
+
+	double getSortP99Micros();
+
+	double getSortMaxMicros();
+
+	/**
+	 * @return the number of sorts, included in the sort count, that found the queue unchanged and
+	 *         kept the previous order
+	 */
+	long getSortSkippedCount();
+
+	long getNewItemCount();
+
+	double getNewItemMeanMicros();
+
+	double getNewItemP50Micros();
+
+	double getNewItemP99Micros();
+
+	double getNewItemMaxMicros();
+
+	/**
+	 * @return the number of calls to the run exclusive dispatcher, the rate is the difference
+	 *         between two samples
+	 */
+	long getRunExclusiveCanRunCount();
+
+	int getQueueItemCacheSize();
+
+	int getStartedJobIndexSize();
+
+	long getStartedJobIndexEvictions();
+
+	/**
+	 * @return the number of items in the queue per priority
+	 */
+	Map<Integer, Integer> getItemsPerPriority();
+
+	/**
+	 * @return the number of items in the queue per JobGroup id, -1 for items not in a JobGroup
+	 */
+	Map<Integer, Integer> getItemsPerJobGroup();
+
+}
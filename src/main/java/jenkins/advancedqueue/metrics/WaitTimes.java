@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jenkins.advancedqueue.sorter.ItemInfo;
+import net.sf.json.JSONObject;
+
+/**
+ * Aggregates how long started items waited in the queue into fixed size histograms per priority and
+ * per JobGroup. The number of histograms is bounded by the number of priorities and JobGroups so
+ * the memory used does not grow with the number of builds.
+ * <p>
+ * The percentiles are the upper bounds of the power of two buckets of the {@link LatencyHistogram}s,
+ * a reported percentile can be up to twice the real one. The JobGroups are renumbered when the
+ * configuration is saved so the wait times per JobGroup are then cleared.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class WaitTimes {
+
+	static private WaitTimes waitTimes = new WaitTimes();
+
+	static public WaitTimes get() {
+		return waitTimes;
+	}
+
+	/**
+	 * The wait times, in milliseconds, of the items started with a priority or in a JobGroup.
+	 */
+	public static class WaitTime {
+
+		// From entering the queue until started
+		private final LatencyHistogram queueTime = new LatencyHistogram();
+
+		// From first becoming buildable until started
+		private final LatencyHistogram buildableTime = new LatencyHistogram();
+
+		// From first being blocked until started, only for items that have been blocked
+		private final LatencyHistogram blockedTime = new LatencyHistogram();
+
+		void record(ItemInfo itemInfo) {
+			long leftAt = itemInfo.getLeftAt();
+			queueTime.record(leftAt - itemInfo.getInQueueSince());
+			if (itemInfo.getBuildableSince() > 0) {
+				buildableTime.record(leftAt - itemInfo.getBuildableSince());
+			}
+			if (itemInfo.getBlockedSince() > 0) {
+				blockedTime.record(leftAt - itemInfo.getBlockedSince());
+			}
+		}
+
+		public LatencyHistogram getQueueTime() {
+			return queueTime;
+		}
+
+		public LatencyHistogram getBuildableTime() {
+			return buildableTime;
+		}
+
+		public LatencyHistogram getBlockedTime() {
+			return blockedTime;
+		}
+
+		JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.element("queueTime", toJSON(queueTime));
+			json.element("buildableTime", toJSON(buildableTime));
+			json.element("blockedTime", toJSON(blockedTime));
+			return json;
+		}
+
+		private static JSONObject toJSON(LatencyHistogram histogram) {
+			JSONObject json = new JSONObject();
+			json.element("count", histogram.getCount());
+			json.element("mean", histogram.getMean());
+			json.element("p50", histogram.getPercentile(50));
+			json.element("p95", histogram.getPercentile(95));
+			json.element("p99", histogram.getPercentile(99));
+			json.element("max", histogram.getMax());
+			return json;
+		}
+
+	}
+
+	private final ConcurrentMap<Integer, WaitTime> priority2waitTime = new ConcurrentHashMap<Integer, WaitTime>();
+
+	private final ConcurrentMap<Integer, WaitTime> jobGroup2waitTime = new ConcurrentHashMap<Integer, WaitTime>();
+
+	WaitTimes() {
+	}
+
+	/**
+	 * Records the wait times of an item that has left the queue to be started.
+	 * 
+	 * @param itemInfo the started item, {@link ItemInfo#getLeftAt()} must be set
+	 */
+	public void record(ItemInfo itemInfo) {
+		if (itemInfo.getLeftAt() == 0) {
+			return;
+		}
+		getOrCreate(priority2waitTime, itemInfo.getPriority()).record(itemInfo);
+		getOrCreate(jobGroup2waitTime, itemInfo.getJobGroupId()).record(itemInfo);
+	}
+
+	private static WaitTime getOrCreate(ConcurrentMap<Integer, WaitTime> waitTimes, int key) {
+		WaitTime waitTime = waitTimes.get(key);
+		if (waitTime == null) {
+			waitTime = new WaitTime();
+			WaitTime previous = waitTimes.putIfAbsent(key, waitTime);
+			if (previous != null) {
+				waitTime = previous;
+			}
+		}
+		return waitTime;
+	}
+
+	/**
+	 * @return the wait times per priority ordered by priority
+	 */
+	public SortedMap<Integer, WaitTime> getPerPriority() {
+		return new TreeMap<Integer, WaitTime>(priority2waitTime);
+	}
+
+	/**
+	 * @return the wait times per JobGroup id ordered by id, items without a JobGroup are found under
+	 *         the id -1
+	 */
+	public SortedMap<Integer, WaitTime> getPerJobGroup() {
+		return new TreeMap<Integer, WaitTime>(jobGroup2waitTime);
+	}
+
+	public void clear() {
+		priority2waitTime.clear();
+		jobGroup2waitTime.clear();
+	}
+
+	/**
+	 * Forgets the wait times per JobGroup, called when the JobGroups get new ids.
+	 */
+	public void clearPerJobGroup() {
+		jobGroup2waitTime.clear();
+	}
+
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.element("priority", toJSON(getPerPriority()));
+		json.element("jobGroup", toJSON(getPerJobGroup()));
+		return json;
+	}
+
+	private static JSONObject toJSON(Map<Integer, WaitTime> waitTimes) {
+		JSONObject json = new JSONObject();
+		for (Map.Entry<Integer, WaitTime> entry : waitTimes.entrySet()) {
+			json.element(String.valueOf(entry.getKey()), entry.getValue().toJSON());
+		}
+		return json;
+	}
+
+}
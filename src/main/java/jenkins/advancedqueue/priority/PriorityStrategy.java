@@ -30,6 +30,7 @@ import hudson.model.Descriptor;
 import hudson.model.Job;
 import hudson.model.Queue;
 import hudson.model.Queue.Item;
+import jenkins.advancedqueue.PriorityConfiguration;
 import jenkins.model.Jenkins;
 
 /**
@@ -38,6 +39,13 @@ import jenkins.model.Jenkins;
  */
 public abstract class PriorityStrategy implements ExtensionPoint, Describable<PriorityStrategy> {
 
+	/**
+	 * Returned by {@link #evaluate(Item)} when the strategy cannot assign a priority to the {@link Item}
+	 * 
+	 * @since 2.7
+	 */
+	public static final int NOT_APPLICABLE = Integer.MIN_VALUE;
+
 	/** 
 	 * Method that checks if strategy can assign a priority to the provided {@link Item}
 	 * 
@@ -59,6 +67,43 @@ public abstract class PriorityStrategy implements ExtensionPoint, Describable<Pr
 	 */
 	abstract public int getPriority(Queue.Item item);
 
+	/**
+	 * Checks if the strategy is applicable and gets the priority in one call, this is what is called
+	 * when the priority of an {@link Item} is decided.
+	 * 
+	 * The default implementation calls {@link #isApplicable(Item)} and {@link #getPriority(Item)},
+	 * strategies that would do the same work in both should override this method.
+	 * 
+	 * The caller garanties that the {@link Item#task} is a {@link Job}
+	 * 
+	 * @param item the {@link Item} to check
+	 * @return the priority to be used by the provided {@link Item} or {@link #NOT_APPLICABLE}
+	 * @since 2.7
+	 */
+	public int evaluate(Queue.Item item) {
+		if (isApplicable(item)) {
+			return getPriority(item);
+		}
+		return NOT_APPLICABLE;
+	}
+
+	/**
+	 * Tells if the outcome of {@link #isApplicable(Item)} and {@link #getPriority(Item)} depends on
+	 * the {@link Item} itself (for example its causes or parameters) or only on the {@link Job} of the
+	 * {@link Item}.
+	 * 
+	 * The outcome of strategies that are not item dependent is remembered per {@link Job} until the
+	 * configuration is changed or {@link PriorityConfiguration#invalidateDecision(String)} is called for
+	 * the {@link Job}, a strategy with an outcome that changes over time must call it when it does.
+	 * 
+	 * @return <code>true</code> if the strategy must be evaluated for every {@link Item}, this is the
+	 *         default
+	 * @since 2.7
+	 */
+	public boolean isItemDependent() {
+		return true;
+	}
+
 	abstract public void numberPrioritiesUpdates(int oldNumberOfPriorities, int newNumberOfPriorities);
 
 	public static DescriptorExtensionList<PriorityStrategy, Descriptor<PriorityStrategy>> all() {
@@ -81,4 +81,10 @@ public class BuildParameterStrategy extends AbstractDynamicPriorityStrategy {
 	public boolean isApplicable(Queue.Item item) {
 		return getPriorityInternal(item) != null;
 	}
+
+	@Override
+	public int evaluate(Queue.Item item) {
+		Integer priority = getPriorityInternal(item);
+		return priority != null ? priority : NOT_APPLICABLE;
+	}
 }
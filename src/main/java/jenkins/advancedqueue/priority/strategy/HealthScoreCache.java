@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.priority.strategy;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.advancedqueue.FullNameItemListener;
+import jenkins.advancedqueue.PriorityConfiguration;
+import jenkins.advancedqueue.SecondChanceCache;
+
+/**
+ * Keeps the health score of Jobs so that the {@link HealthStrategy} never reads the build history
+ * while the queue is processed. Only Jobs asked for by a {@link HealthStrategy} are cached, a Job not
+ * yet in the cache is read in the background and is meanwhile treated as having no health. The score
+ * of a cached Job is refreshed when a build of the Job completes, the health of other Jobs is never
+ * read.
+ * <p>
+ * The cache is a {@link SecondChanceCache}, the capacity is set with the system property
+ * <code>jenkins.advancedqueue.priority.strategy.HealthScoreCache.capacity</code>.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class HealthScoreCache {
+
+	private final static Logger LOGGER = Logger.getLogger(HealthScoreCache.class.getName());
+
+	static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The score of a Job without builds
+	 */
+	static final int NO_HEALTH = -1;
+
+	static private HealthScoreCache healthScoreCache = new HealthScoreCache(Integer.getInteger(
+			HealthScoreCache.class.getName() + ".capacity", DEFAULT_CAPACITY));
+
+	static public HealthScoreCache get() {
+		return healthScoreCache;
+	}
+
+	private final SecondChanceCache<Integer> jobName2score;
+
+	// The Jobs waiting to be read in the background
+	private final ConcurrentMap<String, Boolean> warmingUp = new ConcurrentHashMap<String, Boolean>();
+
+	private ExecutorService executor;
+
+	HealthScoreCache(int capacity) {
+		jobName2score = new SecondChanceCache<Integer>(capacity);
+	}
+
+	/**
+	 * @param job the Job
+	 * @return the cached score, {@link #NO_HEALTH} if the Job has no builds or <code>null</code> if
+	 *         the Job is not cached yet, it is then read in the background
+	 */
+	public Integer getScore(Job<?, ?> job) {
+		Integer score = getCachedScore(job.getFullName());
+		if (score == null) {
+			warmUp(job);
+		}
+		return score;
+	}
+
+	Integer getCachedScore(String jobFullName) {
+		return jobName2score.get(jobFullName);
+	}
+
+	boolean isCached(String jobFullName) {
+		return jobName2score.containsKey(jobFullName);
+	}
+
+	/**
+	 * Reads the health of the Job and updates the cache.
+	 * 
+	 * @return the new score
+	 */
+	public int refresh(Job<?, ?> job) {
+		int score = NO_HEALTH;
+		if (job.getBuilds().iterator().hasNext()) {
+			score = job.getBuildHealth().getScore();
+		}
+		put(job.getFullName(), score);
+		return score;
+	}
+
+	void put(String jobFullName, int score) {
+		jobName2score.put(jobFullName, score);
+	}
+
+	public void remove(String jobFullName) {
+		jobName2score.remove(jobFullName);
+	}
+
+	void rename(String oldFullName, String newFullName) {
+		jobName2score.rename(oldFullName, newFullName);
+	}
+
+	private void warmUp(final Job<?, ?> job) {
+		final String jobFullName = job.getFullName();
+		if (warmingUp.putIfAbsent(jobFullName, Boolean.TRUE) != null) {
+			return;
+		}
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					refresh(job);
+					// Priorities decided while the Job was not cached must be decided again
+					PriorityConfiguration.get().invalidateDecision(jobFullName);
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Failed to read the health of " + jobFullName, e);
+				} finally {
+					warmingUp.remove(jobFullName);
+				}
+			}
+		});
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+		}
+		return executor;
+	}
+
+	public int getCapacity() {
+		return jobName2score.getCapacity();
+	}
+
+	/**
+	 * @return the number of Jobs in the cache
+	 */
+	public int size() {
+		return jobName2score.size();
+	}
+
+	@Extension
+	static public class HealthScoreCacheRunListener extends RunListener<Run> {
+
+		@Override
+		public void onCompleted(Run r, TaskListener listener) {
+			Job<?, ?> job = r.getParent();
+			String jobFullName = job.getFullName();
+			if (get().isCached(jobFullName)) {
+				get().refresh(job);
+			}
+			// Also when the score has been evicted since the decision was made
+			PriorityConfiguration.get().invalidateDecision(jobFullName);
+		}
+
+	}
+
+	@Extension
+	static public class HealthScoreCacheItemListener extends FullNameItemListener {
+
+		@Override
+		protected void onDeleted(String fullName) {
+			get().remove(fullName);
+		}
+
+		@Override
+		protected void onRenamed(String oldFullName, String newFullName) {
+			// The health of a Job does not change with its name
+			get().rename(oldFullName, newFullName);
+		}
+
+	}
+
+}
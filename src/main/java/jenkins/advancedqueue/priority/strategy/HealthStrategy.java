@@ -63,13 +63,24 @@ public class HealthStrategy extends AbstractStaticPriorityStrategy {
 		return health;
 	}
 
+	/**
+	 * The health only changes when a build of the Job completes, the {@link HealthScoreCache}
+	 * invalidates the decision when it does
+	 */
+	@Override
+	public boolean isItemDependent() {
+		return false;
+	}
+
 	@Override
 	public boolean isApplicable(Queue.Item item) {
 		Job<?,?> job = (Job<?,?>) item.task;
-		if(!job.getBuilds().iterator().hasNext()) {
+		// Never read the build history while the queue is processed
+		Integer cachedScore = HealthScoreCache.get().getScore(job);
+		if(cachedScore == null || cachedScore == HealthScoreCache.NO_HEALTH) {
 			return false;
 		}
-		int score = job.getBuildHealth().getScore();
+		int score = cachedScore;
 		int scoreOver = 0;
 		int scoreUnder = 100;
 	    if("HEALTH_OVER_80".equals(health)) {
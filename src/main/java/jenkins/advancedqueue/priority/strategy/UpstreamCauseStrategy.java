@@ -64,7 +64,11 @@ public class UpstreamCauseStrategy extends AbstractDynamicPriorityStrategy {
 	}
 
 	public int getPriority(Queue.Item item) {
-		int upstreamBuildId = getUpstreamCause(item).getUpstreamBuild();
+		return getPriority(getUpstreamCause(item));
+	}
+
+	private int getPriority(UpstreamCause upstreamCause) {
+		int upstreamBuildId = upstreamCause.getUpstreamBuild();
 		ItemInfo upstreamItem = QueueItemCache.get().getItem(upstreamBuildId);
 		// Upstream Item being null should be very very rare
 		if (upstreamItem != null) {
@@ -77,4 +81,13 @@ public class UpstreamCauseStrategy extends AbstractDynamicPriorityStrategy {
 	public boolean isApplicable(Queue.Item item) {
 		return getUpstreamCause(item) != null;
 	}
+
+	@Override
+	public int evaluate(Queue.Item item) {
+		UpstreamCause upstreamCause = getUpstreamCause(item);
+		if (upstreamCause == null) {
+			return NOT_APPLICABLE;
+		}
+		return getPriority(upstreamCause);
+	}
 }
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+/**
+ * Base for {@link SorterStrategyCallback}s that keep the weight with double precision. Strategies set
+ * the weight with {@link #selectWeight(SorterStrategyCallback, double)} so that callbacks only
+ * implementing {@link SorterStrategyCallback} still get it, as a float.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public abstract class AbstractSorterStrategyCallback implements SorterStrategyCallback {
+
+	public abstract SorterStrategyCallback setWeightSelection(double weight);
+
+	public SorterStrategyCallback setWeightSelection(float weight) {
+		return setWeightSelection((double) weight);
+	}
+
+	/**
+	 * Sets the weight on the callback, rounded to a float if the callback does not extend this class.
+	 * 
+	 * @return the callback
+	 */
+	public static SorterStrategyCallback selectWeight(SorterStrategyCallback callback, double weight) {
+		if (callback instanceof AbstractSorterStrategyCallback) {
+			return ((AbstractSorterStrategyCallback) callback).setWeightSelection(weight);
+		}
+		return callback.setWeightSelection((float) weight);
+	}
+
+}
@@ -24,21 +24,31 @@
 package jenkins.advancedqueue.sorter;
 
 import hudson.Extension;
+import hudson.model.Job;
 import hudson.model.Queue;
 import hudson.model.Queue.BuildableItem;
 import hudson.model.Queue.Item;
 import hudson.model.Queue.LeftItem;
 import hudson.model.queue.QueueSorter;
 import hudson.queueSorter.PrioritySorterQueueSorter;
+import hudson.util.DaemonThreadFactory;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jenkins.advancedqueue.PriorityConfiguration;
 import jenkins.advancedqueue.PrioritySorterConfiguration;
+import jenkins.advancedqueue.metrics.PrioritySorterMetrics;
+import jenkins.advancedqueue.metrics.WaitTimes;
 import static jenkins.advancedqueue.ItemTransitionLogger.*;
 
 /**
@@ -50,90 +60,365 @@ public class AdvancedQueueSorter extends QueueSorter {
 
 	private final static Logger LOGGER = Logger.getLogger("PrioritySorter.Queue.Sorter");
 
+	/**
+	 * The order produced by the last sort and the {@link QueueItemCache} generation it was based on.
+	 */
+	private static class SortedItems {
+
+		private final long generation;
+
+		private final int[] itemIds;
+
+		SortedItems(long generation, int[] itemIds) {
+			this.generation = generation;
+			this.itemIds = itemIds;
+		}
+
+	}
+
+	private volatile SortedItems lastSortedItems = new SortedItems(-1, new int[0]);
+
 	public AdvancedQueueSorter() {
 	}
 
+	/**
+	 * Queues with at least this many items at startup have their priorities evaluated in parallel,
+	 * set with the system property
+	 * <code>jenkins.advancedqueue.sorter.AdvancedQueueSorter.bulkInitThreshold</code>
+	 */
+	static final int BULK_INIT_THRESHOLD = Integer.getInteger(AdvancedQueueSorter.class.getName() + ".bulkInitThreshold", 100);
+
+	/**
+	 * The number of threads evaluating priorities at startup, set with the system property
+	 * <code>jenkins.advancedqueue.sorter.AdvancedQueueSorter.bulkInitThreads</code>
+	 */
+	static final int BULK_INIT_THREADS = Integer.getInteger(AdvancedQueueSorter.class.getName() + ".bulkInitThreads",
+			Runtime.getRuntime().availableProcessors());
+
 	static public void init() {
+		long start = System.nanoTime();
 		List<BuildableItem> items = Queue.getInstance().getBuildableItems();
 		// Sort the queue in the order the items entered the queue
-		// so that onNewItem() happens in the correct order below
-		Collections.sort(items, new Comparator<BuildableItem>() {
-			public int compare(BuildableItem o1, BuildableItem o2) {
-				return (int) (o1.getInQueueSince() - o2.getInQueueSince());
-			}
-		});
-		AdvancedQueueSorter advancedQueueSorter = AdvancedQueueSorter.get();
+		// so that the weights are assigned in the correct order below
+		ItemSortKeys keys = new ItemSortKeys(items.size());
 		for (BuildableItem item : items) {
-			advancedQueueSorter.onNewItem(item);
+			keys.add(0F, item.getInQueueSince(), item.id);
+		}
+		ItemSortKeys.permute(items, keys.sort());
+		AdvancedQueueSorter advancedQueueSorter = AdvancedQueueSorter.get();
+		// Items found in the snapshot keep their priority and weight
+		ItemInfo[] itemInfos = restoreSnapshot(items);
+		List<BuildableItem> itemsToEvaluate = new ArrayList<BuildableItem>();
+		for (int i = 0; i < itemInfos.length; i++) {
+			if (itemInfos[i] == null) {
+				itemsToEvaluate.add(items.get(i));
+			}
+		}
+		int restored = items.size() - itemsToEvaluate.size();
+		// The priorities do not depend on each other so they can be evaluated in any order, the
+		// weights depend on the items started/assigned before and must be assigned in queue order
+		int threads = Math.min(BULK_INIT_THREADS, itemsToEvaluate.size());
+		ItemInfo[] evaluatedItemInfos;
+		if (itemsToEvaluate.size() >= BULK_INIT_THRESHOLD && threads > 1) {
+			evaluatedItemInfos = evaluatePriorities(advancedQueueSorter, itemsToEvaluate, threads);
+		} else {
+			threads = 1;
+			evaluatedItemInfos = new ItemInfo[itemsToEvaluate.size()];
+		}
+		long evaluated = System.nanoTime();
+		int evaluatedIndex = 0;
+		for (int i = 0; i < itemInfos.length; i++) {
+			BuildableItem item = items.get(i);
+			ItemInfo itemInfo = itemInfos[i];
+			if (itemInfo != null) {
+				QueueItemCache.get().addItem(itemInfo);
+				AgingWheel.get().schedule(itemInfo);
+				logNewItem(itemInfo);
+			} else {
+				itemInfo = evaluatedItemInfos[evaluatedIndex++];
+				if (itemInfo == null) {
+					itemInfo = advancedQueueSorter.evaluatePriority(item);
+				}
+				advancedQueueSorter.assignWeight(item, itemInfo);
+			}
 			// Listener called before we get here so make sure we mark buildable
-			QueueItemCache.get().getItem(item.id).setBuildable();
+			itemInfo.setBuildable();
+		}
+		long done = System.nanoTime();
+		LOGGER.log(Level.INFO, "Initialized the QueueSorter with {0} Buildable Items ({1} restored from the snapshot) in {2} ms, priorities evaluated in {3} ms using {4} thread(s)",
+				new Object[] { items.size(), restored, TimeUnit.NANOSECONDS.toMillis(done - start),
+						TimeUnit.NANOSECONDS.toMillis(evaluated - start), threads });
+	}
+
+	/**
+	 * Restores the state of the strategy and the items found in the saved {@link QueueSnapshot}.
+	 * 
+	 * @return the restored items at the position of the item, <code>null</code> for items to evaluate
+	 */
+	private static ItemInfo[] restoreSnapshot(List<BuildableItem> items) {
+		ItemInfo[] itemInfos = new ItemInfo[items.size()];
+		QueueSnapshot snapshot = QueueSnapshot.load();
+		SorterStrategy sorterStrategy = PrioritySorterConfiguration.get().getStrategy();
+		if (snapshot == null || !snapshot.isCompatible(sorterStrategy)) {
+			return itemInfos;
+		}
+		sorterStrategy.setState(snapshot.getStrategyState());
+		Map<Integer, QueueSnapshot.Entry> id2entry = snapshot.getItems();
+		for (int i = 0; i < itemInfos.length; i++) {
+			BuildableItem item = items.get(i);
+			QueueSnapshot.Entry entry = id2entry.get(item.id);
+			if (entry != null && entry.matches(item.id, item.getInQueueSince(), item.task.getName())) {
+				itemInfos[i] = entry.toItemInfo(QueueSnapshot.getPriorityStrategies(entry.getJobGroupId()));
+				itemInfos[i].setJobFullName(item);
+			}
+		}
+		return itemInfos;
+	}
+
+	/**
+	 * Evaluates the priorities of the items on a temporary pool, items that fail are left as
+	 * <code>null</code> to be evaluated again by the caller.
+	 */
+	private static ItemInfo[] evaluatePriorities(final AdvancedQueueSorter advancedQueueSorter, List<BuildableItem> items,
+			int threads) {
+		ItemInfo[] itemInfos = new ItemInfo[items.size()];
+		List<Callable<ItemInfo>> tasks = new ArrayList<Callable<ItemInfo>>(items.size());
+		for (final BuildableItem item : items) {
+			tasks.add(new Callable<ItemInfo>() {
+				public ItemInfo call() throws Exception {
+					return advancedQueueSorter.evaluatePriority(item);
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+		try {
+			List<Future<ItemInfo>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < itemInfos.length; i++) {
+				try {
+					itemInfos[i] = futures.get(i).get();
+				} catch (ExecutionException e) {
+					LOGGER.log(Level.WARNING, "Failed to evaluate the priority of " + items.get(i).task.getName()
+							+ " in parallel, evaluating it again", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.log(Level.WARNING, "Interrupted while evaluating priorities, evaluating the remaining items sequentially");
+		} finally {
+			executor.shutdownNow();
 		}
-		LOGGER.fine("Initialized the QueueSorter with " + items.size() + " Buildable Items");
+		return itemInfos;
 	}
 
 	@Override
 	public void sortBuildableItems(List<BuildableItem> items) {
+		long start = System.nanoTime();
 		// Handle Legacy mode
 		if (PrioritySorterConfiguration.get().getLegacyMode()) {
 			new PrioritySorterQueueSorter().sortBuildableItems(items);
 		}
+		// Give evaluated items their real weight before they are sorted
+		PriorityEvaluator.get().publishEvaluated();
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		// Read before sorting so that a concurrent change forces the next call to sort again
+		long generation = queueItemCache.getGeneration();
+		if (isUnchanged(items, generation, lastSortedItems)) {
+			PrioritySorterMetrics.get().recordSortSkipped();
+			PrioritySorterMetrics.get().recordSort(System.nanoTime() - start);
+			return;
+		}
 		// Sort
-		Collections.sort(items, new Comparator<BuildableItem>() {
-			public int compare(BuildableItem o1, BuildableItem o2) {
-				float o1weight = getCalculatedWeight(o1);
-				float o2weight = getCalculatedWeight(o2);
-				if (o1weight > o2weight) {
-					return 1;
-				}
-				if (o1weight < o2weight) {
-					return -1;
-				}
-				return (int) (o1.getInQueueSince() - o2.getInQueueSince());
+		if (useSortedIndex(items.size(), queueItemCache.size())) {
+			sortFromIndex(items, queueItemCache);
+		} else {
+			// Resolve the keys once and sort the primitives
+			ItemSortKeys keys = new ItemSortKeys(items.size());
+			for (BuildableItem item : items) {
+				ItemInfo itemInfo = getItemInfo(item);
+				keys.add(itemInfo.getExactWeight(), itemInfo.getInQueueSince(), itemInfo.getItemId());
 			}
-		});
+			ItemSortKeys.permute(items, keys.sort());
+		}
+		lastSortedItems = new SortedItems(generation, getItemIds(items));
 		//
 		if (items.size() > 0 && LOGGER.isLoggable(Level.FINE)) {
-			float minWeight = QueueItemCache.get().getItem(items.get(0).id).getWeight();
-			float maxWeight = QueueItemCache.get().getItem(items.get(items.size() - 1).id).getWeight();
+			double minWeight = queueItemCache.getItem(items.get(0).id).getExactWeight();
+			double maxWeight = queueItemCache.getItem(items.get(items.size() - 1).id).getExactWeight();
 			LOGGER.log(Level.FINE, "Sorted {0} Buildable Items with Min Weight {1} and Max Weight {2}", new Object[] { items.size(), minWeight, maxWeight });
 		}
+		PrioritySorterMetrics.get().recordSort(System.nanoTime() - start);
 	}
 
 	/**
-	 * Returned the calculated, cached, weight or calculates the weight if missing. Should only be
-	 * called when the value should already be there, if the item is new {@link #onNewItem(Item)} is
-	 * the method to call.
+	 * Jenkins sorts the same list of buildable items on every maintenance of the queue, if no item
+	 * or weight has changed since the last sort and the list holds the same items in the same order
+	 * it is already sorted.
+	 */
+	static boolean isUnchanged(List<BuildableItem> items, long generation, SortedItems lastSortedItems) {
+		if (generation != lastSortedItems.generation || items.size() != lastSortedItems.itemIds.length) {
+			return false;
+		}
+		int[] itemIds = lastSortedItems.itemIds;
+		for (int i = 0; i < itemIds.length; i++) {
+			if (items.get(i).id != itemIds[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] getItemIds(List<BuildableItem> items) {
+		int[] itemIds = new int[items.size()];
+		for (int i = 0; i < itemIds.length; i++) {
+			itemIds[i] = items.get(i).id;
+		}
+		return itemIds;
+	}
+
+	/**
+	 * Walking the sorted index is linear in the number of queued items, sorting the keys is
+	 * n*log(n) in the number of buildable items. Use the index unless most of the queue is blocked or
+	 * waiting.
+	 */
+	static boolean useSortedIndex(int buildableItems, int queuedItems) {
+		int log2 = 32 - Integer.numberOfLeadingZeros(buildableItems);
+		return queuedItems <= (long) buildableItems * log2;
+	}
+
+	private void sortFromIndex(List<BuildableItem> items, QueueItemCache queueItemCache) {
+		ConcurrentIntMap<BuildableItem> id2item = new ConcurrentIntMap<BuildableItem>(items.size());
+		for (BuildableItem item : items) {
+			getItemInfo(item);
+			id2item.put(item.id, item);
+		}
+		// The cache keeps all queued items ordered by weight so just pick the buildable items in the
+		// order of the index
+		BuildableItem[] sortedItems = new BuildableItem[items.size()];
+		int position = 0;
+		for (int itemId : queueItemCache.getSortedItemIds()) {
+			BuildableItem item = id2item.remove(itemId);
+			if (item != null) {
+				sortedItems[position++] = item;
+			}
+		}
+		// Anything not found in the index (should not happen) keeps its relative order at the end
+		if (!id2item.isEmpty()) {
+			for (BuildableItem item : items) {
+				if (id2item.containsKey(item.id)) {
+					sortedItems[position++] = item;
+				}
+			}
+		}
+		for (int i = 0; i < sortedItems.length; i++) {
+			items.set(i, sortedItems[i]);
+		}
+	}
+
+	/**
+	 * Returns the cached {@link ItemInfo} or calculates it if missing. Should only be called when
+	 * the value should already be there, if the item is new {@link #onNewItem(Item)} is the method to
+	 * call.
 	 * 
-	 * @param item the item to get the weight for
-	 * @return the calculated weight
+	 * @param item the item to get the {@link ItemInfo} for
+	 * @return the {@link ItemInfo} for the item
 	 */
-	private float getCalculatedWeight(BuildableItem item) {
-		try {
-			return QueueItemCache.get().getItem(item.id).getWeight();
-		} catch (NullPointerException e) {
+	private ItemInfo getItemInfo(BuildableItem item) {
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		// Normally the item is already known, if not (for example at startup) calculate it now
+		if (queueItemCache.getItem(item.id) == null) {
 			onNewItem(item);
-			return QueueItemCache.get().getItem(item.id).getWeight();
 		}
+		// Normally already published when the item became buildable, a new item is pending if other
+		// items were and must be published before it is sorted
+		PriorityEvaluator.get().publish(item.id);
+		return queueItemCache.getItem(item.id);
 	}
 
-	public void onNewItem(Item item) {
-		final SorterStrategy prioritySorterStrategy = PrioritySorterConfiguration.get().getStrategy();
+	public ItemInfo onNewItem(Item item) {
+		long start = System.nanoTime();
+		PriorityEvaluator priorityEvaluator = PriorityEvaluator.get();
+		ItemInfo itemInfo;
+		if (priorityEvaluator.isAsync(item)) {
+			itemInfo = newProvisionalItem(item);
+			priorityEvaluator.submit(item, itemInfo, null);
+		} else if (priorityEvaluator.hasPending()) {
+			// The weight must be assigned after the weights of the items still pending
+			itemInfo = newProvisionalItem(item);
+			priorityEvaluator.submit(item, itemInfo, evaluatePriority(item));
+			priorityEvaluator.publishEvaluated();
+		} else {
+			itemInfo = assignWeight(item, evaluatePriority(item));
+		}
+		PrioritySorterMetrics.get().recordNewItem(System.nanoTime() - start);
+		return itemInfo;
+	}
+
+	/**
+	 * Resolves the priority of a new item, safe to call concurrently for different items.
+	 */
+	ItemInfo evaluatePriority(Item item) {
 		ItemInfo itemInfo = new ItemInfo(item);
 		PriorityConfiguration.get().getPriority(item, itemInfo);
-		prioritySorterStrategy.onNewItem(item, itemInfo);
+		return itemInfo;
+	}
+
+	/**
+	 * Creates the item cached until the {@link PriorityEvaluator} publishes it, it has the default
+	 * priority and a weight that sorts it after all published items.
+	 */
+	private ItemInfo newProvisionalItem(Item item) {
+		ItemInfo provisional = new ItemInfo(item);
+		provisional.setPrioritySelection(PrioritySorterConfiguration.get().getStrategy().getDefaultPriority());
+		provisional.setWeightSelection(PriorityEvaluator.PROVISIONAL_WEIGHT);
+		return provisional;
+	}
+
+	/**
+	 * Assigns the weight of an item published by the {@link PriorityEvaluator}, called by the queue
+	 * thread in the order the items entered the queue. The evaluation is copied to the cached item so
+	 * that what has been recorded about it (like when it became buildable) is kept.
+	 */
+	void publish(Item item, ItemInfo provisional, ItemInfo evaluated) {
+		PrioritySorterConfiguration.get().getStrategy().onNewItem(item, evaluated);
+		provisional.copyEvaluation(evaluated);
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		queueItemCache.updateWeight(provisional, queueItemCache.getRebasedWeight(evaluated));
+		AgingWheel.get().schedule(provisional);
+		logNewItem(provisional);
+	}
+
+	/**
+	 * Assigns the weight of a new item with an evaluated priority and adds it to the cache, items
+	 * must be passed in the order they entered the queue.
+	 */
+	ItemInfo assignWeight(Item item, ItemInfo itemInfo) {
+		PrioritySorterConfiguration.get().getStrategy().onNewItem(item, itemInfo);
 		QueueItemCache.get().addItem(itemInfo);
+		AgingWheel.get().schedule(itemInfo);
 		logNewItem(itemInfo);
+		return itemInfo;
 	}
 
 	public void onLeft(LeftItem li) {
 		final SorterStrategy prioritySorterStrategy = PrioritySorterConfiguration.get().getStrategy();
+		// A started item must leave with its real weight
+		if (li.isCancelled()) {
+			PriorityEvaluator.get().cancel(li.id);
+		} else {
+			PriorityEvaluator.get().publish(li.id);
+		}
 		ItemInfo itemInfo = QueueItemCache.get().removeItem(li.id);
-		Float weight = itemInfo.getWeight();
+		itemInfo.setLeft();
+		double weight = itemInfo.getExactWeight();
 		if (li.isCancelled()) {
 			prioritySorterStrategy.onCanceledItem(li);
 			logCanceledItem(itemInfo);
 		} else {
 			prioritySorterStrategy.onStartedItem(li, weight);
+			if (li.task instanceof Job) {
+				StartedJobIndex.get().put(((Job<?, ?>) li.task).getFullName(), itemInfo);
+			}
+			WaitTimes.get().record(itemInfo);
 			logStartedItem(itemInfo);
 		}
 	}
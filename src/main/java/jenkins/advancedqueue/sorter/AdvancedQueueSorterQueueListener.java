@@ -49,6 +49,8 @@ public class AdvancedQueueSorterQueueListener extends QueueListener {
 
 	@Override
 	public void onEnterBuildable(BuildableItem bi) {
+		// Publish the evaluated priority before the item can be sorted
+		PriorityEvaluator.get().publish(bi.id);
 		ItemInfo item = QueueItemCache.get().getItem(bi.id);
 		// Null at startup
 		if(item != null) {
@@ -58,6 +60,7 @@ public class AdvancedQueueSorterQueueListener extends QueueListener {
 
 	@Override
 	public void onEnterBlocked(BlockedItem bi) {
+		PriorityEvaluator.get().publish(bi.id);
 		QueueItemCache.get().getItem(bi.id).setBlocked();
 	}
 
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.Queue.Item;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.advancedqueue.JobGroup;
+import jenkins.advancedqueue.PriorityConfiguration;
+import jenkins.advancedqueue.PrioritySorterConfiguration;
+
+/**
+ * Promotes items that have waited long in the queue according to the aging curve of their
+ * {@link JobGroup}. The items are kept in a hashed timer wheel by the time of their next promotion
+ * so each tick only visits the items due in that tick, an item is re-weighted when it crosses a
+ * threshold of the curve and never otherwise.
+ * <p>
+ * A promoted item is given the weight the {@link SorterStrategy} would give a new item with the
+ * promoted priority, from {@link SorterStrategy#getWeightForPriority(Item, int)} so that the state of
+ * the strategy is not moved, unless that is heavier than the weight it has.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class AgingWheel {
+
+	private final static Logger LOGGER = Logger.getLogger(AgingWheel.class.getName());
+
+	static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	static final int SLOTS = 64;
+
+	// The highest priority an item can be promoted to
+	static final int HIGHEST_PRIORITY = 1;
+
+	static private AgingWheel agingWheel = new AgingWheel(System.currentTimeMillis());
+
+	static public AgingWheel get() {
+		return agingWheel;
+	}
+
+	static class Entry {
+
+		ItemInfo itemInfo;
+
+		final long[] thresholds;
+
+		// The number of promotions done
+		int step = 0;
+
+		// The tick of the next promotion
+		long tick;
+
+		Entry(ItemInfo itemInfo, long[] thresholds) {
+			this.itemInfo = itemInfo;
+			this.thresholds = thresholds;
+		}
+
+		long getDeadline() {
+			return itemInfo.getInQueueSince() + thresholds[step];
+		}
+
+	}
+
+	private final List<List<Entry>> slots = new ArrayList<List<Entry>>(SLOTS);
+
+	// The last tick advanced to
+	private long currentTick;
+
+	private int size = 0;
+
+	AgingWheel(long now) {
+		for (int i = 0; i < SLOTS; i++) {
+			slots.add(new ArrayList<Entry>());
+		}
+		currentTick = now / TICK_MILLIS;
+	}
+
+	/**
+	 * Adds an item that has just been added to the {@link QueueItemCache} if its JobGroup uses aging.
+	 */
+	void schedule(ItemInfo itemInfo) {
+		JobGroup jobGroup = PriorityConfiguration.get().getJobGroup(itemInfo.getJobGroupId());
+		if (jobGroup == null) {
+			return;
+		}
+		long[] thresholds = jobGroup.getAgingThresholds();
+		if (thresholds.length > 0) {
+			schedule(new Entry(itemInfo, thresholds));
+		}
+	}
+
+	synchronized void schedule(Entry entry) {
+		// Already due entries are promoted on the next tick
+		entry.tick = Math.max(currentTick + 1, (entry.getDeadline() + TICK_MILLIS - 1) / TICK_MILLIS);
+		slots.get((int) (entry.tick % SLOTS)).add(entry);
+		size++;
+	}
+
+	/**
+	 * Moves the wheel to the time and removes the entries that are due, at most one revolution of
+	 * slots is visited however long since the last call.
+	 * 
+	 * @return the entries due at <code>now</code>
+	 */
+	synchronized List<Entry> advance(long now) {
+		List<Entry> due = new ArrayList<Entry>();
+		long nowTick = now / TICK_MILLIS;
+		long slotsToVisit = Math.min(SLOTS, nowTick - currentTick);
+		for (long tick = nowTick - slotsToVisit + 1; tick <= nowTick; tick++) {
+			Iterator<Entry> iterator = slots.get((int) (tick % SLOTS)).iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (entry.tick <= nowTick) {
+					iterator.remove();
+					size--;
+					due.add(entry);
+				}
+			}
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return due;
+	}
+
+	/**
+	 * @return the number of scheduled entries, including entries of items that have left the queue
+	 *         and are dropped when due
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Promotes the items due at <code>now</code>.
+	 */
+	public void promote(long now) {
+		List<Entry> due = advance(now);
+		if (due.isEmpty()) {
+			return;
+		}
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		SorterStrategy sorterStrategy = PrioritySorterConfiguration.get().getStrategy();
+		Queue queue = Queue.getInstance();
+		int promoted = 0;
+		// Keep the queue from being sorted or dispatched with partially promoted items
+		synchronized (queue) {
+			for (Entry entry : due) {
+				// The cached item is replaced by a copy when the weights are rebased
+				ItemInfo itemInfo = queueItemCache.getItem(entry.itemInfo.getItemId());
+				if (itemInfo == null) {
+					// Left the queue
+					continue;
+				}
+				entry.itemInfo = itemInfo;
+				Item item = queue.getItem(itemInfo.getItemId());
+				if (item == null) {
+					continue;
+				}
+				entry.step++;
+				int priority = Math.max(HIGHEST_PRIORITY, itemInfo.getPriority() - entry.step);
+				double weight = sorterStrategy.getWeightForPriority(item, priority);
+				if (weight < itemInfo.getExactWeight()) {
+					queueItemCache.updateWeight(itemInfo, weight);
+					promoted++;
+				}
+				if (entry.step < entry.thresholds.length && priority > HIGHEST_PRIORITY) {
+					schedule(entry);
+				}
+			}
+		}
+		LOGGER.log(Level.FINE, "Promoted {0} of {1} items due for aging", new Object[] { promoted, due.size() });
+	}
+
+	@Extension
+	static public class AgingWork extends PeriodicWork {
+
+		@Override
+		public long getRecurrencePeriod() {
+			return TICK_MILLIS;
+		}
+
+		@Override
+		protected void doRun() throws Exception {
+			if (!PrioritySorterConfiguration.get().getLegacyMode()) {
+				get().promote(System.currentTimeMillis());
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from primitive <code>int</code> keys to values using open addressing with linear probing.
+ * Reads are wait-free and never block, writes are serialized on the map itself. Used to look up
+ * items by their itemId/queueId without boxing the id and without contending with the queue
+ * maintenance thread.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+class ConcurrentIntMap<V> {
+
+	private final static int MIN_CAPACITY = 16;
+
+	private final static Entry<Object> TOMBSTONE = new Entry<Object>(0, null);
+
+	private static class Entry<V> {
+
+		final int key;
+
+		final V value;
+
+		Entry(int key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	// Replaced (never resized in place) when it needs to grow so readers always see a consistent table
+	private volatile AtomicReferenceArray<Entry<V>> table;
+
+	private volatile int size = 0;
+
+	// Number of slots taken by entries or tombstones, only accessed by writers
+	private int usedSlots = 0;
+
+	ConcurrentIntMap() {
+		this(MIN_CAPACITY);
+	}
+
+	ConcurrentIntMap(int expectedSize) {
+		table = new AtomicReferenceArray<Entry<V>>(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		// Keep the load, including tombstones, below 50%
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(int key) {
+		// Spread the mostly sequential ids over the table
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public V get(int key) {
+		AtomicReferenceArray<Entry<V>> table = this.table;
+		int mask = table.length() - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			Entry<V> entry = table.get(i);
+			if (entry == null) {
+				return null;
+			}
+			if (entry != TOMBSTONE && entry.key == key) {
+				return entry.value;
+			}
+		}
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value, must not be <code>null</code>
+	 * @return the previous value for the key or <code>null</code>
+	 */
+	synchronized public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+		AtomicReferenceArray<Entry<V>> table = this.table;
+		int mask = table.length() - 1;
+		int free = -1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			Entry<V> entry = table.get(i);
+			if (entry == null) {
+				if (free < 0) {
+					free = i;
+					usedSlots++;
+				}
+				break;
+			}
+			if (entry == TOMBSTONE) {
+				if (free < 0) {
+					free = i;
+				}
+			} else if (entry.key == key) {
+				table.set(i, new Entry<V>(key, value));
+				return entry.value;
+			}
+		}
+		table.set(free, new Entry<V>(key, value));
+		size++;
+		if (usedSlots * 2 > table.length()) {
+			rehash();
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	synchronized public V remove(int key) {
+		AtomicReferenceArray<Entry<V>> table = this.table;
+		int mask = table.length() - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			Entry<V> entry = table.get(i);
+			if (entry == null) {
+				return null;
+			}
+			if (entry != TOMBSTONE && entry.key == key) {
+				table.set(i, (Entry<V>) TOMBSTONE);
+				size--;
+				return entry.value;
+			}
+		}
+	}
+
+	synchronized public void clear() {
+		table = new AtomicReferenceArray<Entry<V>>(MIN_CAPACITY);
+		size = 0;
+		usedSlots = 0;
+	}
+
+	private void rehash() {
+		AtomicReferenceArray<Entry<V>> oldTable = table;
+		AtomicReferenceArray<Entry<V>> newTable = new AtomicReferenceArray<Entry<V>>(capacityFor(size + 1));
+		int mask = newTable.length() - 1;
+		for (int j = 0; j < oldTable.length(); j++) {
+			Entry<V> entry = oldTable.get(j);
+			if (entry != null && entry != TOMBSTONE) {
+				int i = hash(entry.key) & mask;
+				while (newTable.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				newTable.set(i, entry);
+			}
+		}
+		usedSlots = size;
+		table = newTable;
+	}
+
+}
@@ -23,6 +23,7 @@
  */
 package jenkins.advancedqueue.sorter;
 
+import static jenkins.advancedqueue.ItemTransitionLogger.isDecisionLogEnabled;
 import static jenkins.advancedqueue.ItemTransitionLogger.logBlockedItem;
 import static jenkins.advancedqueue.ItemTransitionLogger.logBuilableItem;
 
@@ -30,6 +31,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import hudson.model.Queue.Item;
+import jenkins.advancedqueue.DecisionLogCode;
 import jenkins.advancedqueue.PriorityConfigurationCallback;
 import jenkins.advancedqueue.priority.PriorityStrategy;
 
@@ -39,7 +41,8 @@ import jenkins.advancedqueue.priority.PriorityStrategy;
  * @author Magnus Sandberg
  * @since 2.3
  */
-public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCallback, Comparable<ItemInfo> {
+public class ItemInfo extends AbstractSorterStrategyCallback implements PriorityConfigurationCallback,
+		DecisionLogCode.Recorder, Comparable<ItemInfo> {
 
 	private int itemId;
 
@@ -51,19 +54,88 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 
 	private String jobName;
 
-	private float weight;
+	// The full name of the task if it is an Item, null otherwise
+	private String jobFullName;
+
+	private double weight;
+
+	// The sum of the offsets the weights in the QueueItemCache had been rebased with when the weight was set
+	private double weightOffset;
 
 	private int priority;
 
 	private ItemStatus itemStatus;
+
+	// When the item first became buildable/blocked and when it left the queue, 0 if not (yet) done
+	private long buildableSince;
+
+	private long blockedSince;
+
+	private long leftAt;
 	
-	private List<String> decisionLog = new ArrayList<String>(10);
+	// Upper bound of the entries kept in the decision log of an item
+	static final int MAX_DECISION_LOG_ENTRIES = 100;
+
+	private static class DecisionLogEntry {
+
+		private final int indent;
+
+		private final DecisionLogCode code;
+
+		private final Object argument;
+
+		DecisionLogEntry(int indent, DecisionLogCode code, Object argument) {
+			this.indent = indent;
+			this.code = code;
+			this.argument = argument;
+		}
+
+		String render() {
+			// Entries without code are added as text
+			return code == null ? String.valueOf(argument) : code.render(argument);
+		}
+
+	}
+
+	// Only recorded when the decision log is logged, null otherwise
+	private List<DecisionLogEntry> decisionLog;
+
+	private int droppedDecisionLogEntries;
 
 	ItemInfo(Item item) {
-		this.itemId = item.id;
-		this.inQueueSince = item.getInQueueSince();
-		this.jobName = item.task.getName();
+		this(item.id, item.getInQueueSince(), item.task.getName());
+		setJobFullName(item);
+	}
+
+	ItemInfo(int itemId, long inQueueSince, String jobName) {
+		this.itemId = itemId;
+		this.inQueueSince = inQueueSince;
+		this.jobName = jobName;
 		this.itemStatus = ItemStatus.WAITING;
+		if (isDecisionLogEnabled()) {
+			decisionLog = new ArrayList<DecisionLogEntry>(10);
+		}
+	}
+
+	/**
+	 * Copies the item with a new weight, used to rebase the weights without changing the items that
+	 * lock-free readers may still be looking at.
+	 */
+	ItemInfo(ItemInfo itemInfo, double weight) {
+		this.itemId = itemInfo.itemId;
+		this.inQueueSince = itemInfo.inQueueSince;
+		this.jobGroupId = itemInfo.jobGroupId;
+		this.priorityStrategy = itemInfo.priorityStrategy;
+		this.jobName = itemInfo.jobName;
+		this.jobFullName = itemInfo.jobFullName;
+		this.priority = itemInfo.priority;
+		this.itemStatus = itemInfo.itemStatus;
+		this.buildableSince = itemInfo.buildableSince;
+		this.blockedSince = itemInfo.blockedSince;
+		this.leftAt = itemInfo.leftAt;
+		this.decisionLog = itemInfo.decisionLog;
+		this.droppedDecisionLogEntries = itemInfo.droppedDecisionLogEntries;
+		setWeightSelection(weight);
 	}
 
 	public PriorityConfigurationCallback setPrioritySelection(int priority, int jobGroupId, PriorityStrategy reason) {
@@ -74,7 +146,21 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 	}
 
 	public PriorityConfigurationCallback addDecisionLog(int indent, String log) {
-		this.decisionLog.add(String.format("%"+ ((indent + 1) * 2) + "s%s", "", log));
+		return addDecisionLogEntry(indent, null, log);
+	}
+
+	public PriorityConfigurationCallback addDecisionLog(DecisionLogCode code, Object argument) {
+		return addDecisionLogEntry(code.getIndent(), code, argument);
+	}
+
+	private PriorityConfigurationCallback addDecisionLogEntry(int indent, DecisionLogCode code, Object argument) {
+		if (decisionLog != null) {
+			if (decisionLog.size() < MAX_DECISION_LOG_ENTRIES) {
+				decisionLog.add(new DecisionLogEntry(indent, code, argument));
+			} else {
+				droppedDecisionLogEntries++;
+			}
+		}
 		return this;
 	}
 
@@ -83,21 +169,43 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 		return this;
 	}
 
-	public SorterStrategyCallback setWeightSelection(float weight) {
+	/**
+	 * Takes the priority decided for the evaluated version of this item, everything recorded about
+	 * this item in the queue is kept.
+	 */
+	void copyEvaluation(ItemInfo evaluated) {
+		setPrioritySelection(evaluated.priority, evaluated.jobGroupId, evaluated.priorityStrategy);
+		decisionLog = evaluated.decisionLog;
+		droppedDecisionLogEntries = evaluated.droppedDecisionLogEntries;
+	}
+
+	@Override
+	public SorterStrategyCallback setWeightSelection(double weight) {
 		this.weight = weight;
+		this.weightOffset = QueueItemCache.get().getWeightOffset();
 		return this;
 	}
 
 	public void setBuildable() {
 		itemStatus = ItemStatus.BUILDABLE;
+		if (buildableSince == 0) {
+			buildableSince = System.currentTimeMillis();
+		}
 		logBuilableItem(this);
 	}
 
 	public void setBlocked() {
 		itemStatus = ItemStatus.BLOCKED;
+		if (blockedSince == 0) {
+			blockedSince = System.currentTimeMillis();
+		}
 		logBlockedItem(this);
 	}
 
+	void setLeft() {
+		leftAt = System.currentTimeMillis();
+	}
+
 	public int getItemId() {
 		return itemId;
 	}
@@ -106,6 +214,27 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 		return inQueueSince;
 	}
 
+	/**
+	 * @return when the item first became buildable or 0 if it has not been buildable
+	 */
+	public long getBuildableSince() {
+		return buildableSince;
+	}
+
+	/**
+	 * @return when the item was first blocked or 0 if it has not been blocked
+	 */
+	public long getBlockedSince() {
+		return blockedSince;
+	}
+
+	/**
+	 * @return when the item left the queue or 0 if it is still in the queue
+	 */
+	public long getLeftAt() {
+		return leftAt;
+	}
+
 	public int getJobGroupId() {
 		return jobGroupId;
 	}
@@ -118,10 +247,39 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 		return jobName;
 	}
 
+	/**
+	 * @return the full name of the task or <code>null</code> if the task is not an
+	 *         {@link hudson.model.Item}
+	 */
+	public String getJobFullName() {
+		return jobFullName;
+	}
+
+	void setJobFullName(Item item) {
+		if (item.task instanceof hudson.model.Item) {
+			jobFullName = ((hudson.model.Item) item.task).getFullName();
+		}
+	}
+
+	/**
+	 * @return the weight rounded to a float, use {@link #getExactWeight()} to order the items
+	 */
 	public float getWeight() {
+		return (float) weight;
+	}
+
+	/**
+	 * @return the weight as set by the {@link SorterStrategy}
+	 * @since 2.7
+	 */
+	public double getExactWeight() {
 		return weight;
 	}
 
+	double getWeightOffset() {
+		return weightOffset;
+	}
+
 	public int getPriority() {
 		return priority;
 	}
@@ -131,13 +289,13 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 	}
 
 	public int compareTo(ItemInfo o) {
-		if(this.getWeight() == o.getWeight()) {
+		if(this.getExactWeight() == o.getExactWeight()) {
 			if(this.getInQueueSince() == o.getInQueueSince()) {
 				return Integer.compare(this.getItemId(), o.getItemId());
 			}
 			return Long.compare(this.getInQueueSince(), o.getInQueueSince());
 		}
-		return Float.compare(this.getWeight(), o.getWeight());
+		return Double.compare(this.getExactWeight(), o.getExactWeight());
 	}
 
 	@Override
@@ -150,10 +308,31 @@ public class ItemInfo implements PriorityConfigurationCallback, SorterStrategyCa
 				jobName, jobGroupId, reason, priority, weight, itemStatus);
 	}
 	
+	/**
+	 * Drops the decision log, it is only kept until it has been logged.
+	 */
+	public void clearDecisionLog() {
+		decisionLog = null;
+		droppedDecisionLogEntries = 0;
+	}
+
+	/**
+	 * @return the rendered decision log, empty if the decision log was not enabled when the item
+	 *         entered the queue or has been cleared
+	 */
 	public String getDescisionLog() {
-		StringBuffer buffer = new StringBuffer();
-		for (String  log : decisionLog) {
-			buffer.append(log).append("\n");
+		StringBuilder buffer = new StringBuilder();
+		if (decisionLog == null) {
+			return buffer.toString();
+		}
+		for (DecisionLogEntry entry : decisionLog) {
+			for (int i = 0; i < (entry.indent + 1) * 2; i++) {
+				buffer.append(' ');
+			}
+			buffer.append(entry.render()).append("\n");
+		}
+		if (droppedDecisionLogEntries > 0) {
+			buffer.append("  ... ").append(droppedDecisionLogEntries).append(" more\n");
 		}
 		return buffer.toString();
 	}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import java.util.List;
+
+/**
+ * Sort keys for a batch of queue items resolved once into primitive arrays so that sorting never
+ * needs to look anything up. Items are ordered by weight, inQueueSince and itemId, the same order
+ * as {@link ItemInfo#compareTo(ItemInfo)}.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+class ItemSortKeys {
+
+	// Sortable weight bits
+	private final long[] weights;
+
+	private final long[] inQueueSince;
+
+	private final int[] itemIds;
+
+	private int size = 0;
+
+	ItemSortKeys(int capacity) {
+		weights = new long[capacity];
+		inQueueSince = new long[capacity];
+		itemIds = new int[capacity];
+	}
+
+	/**
+	 * Adds the keys for the item at the next position.
+	 */
+	void add(double weight, long inQueueSince, int itemId) {
+		long bits = Double.doubleToLongBits(weight);
+		// Flip the bits of negative values so that the bits compare as signed longs
+		bits ^= (bits >> 63) & 0x7FFFFFFFFFFFFFFFL;
+		this.weights[size] = bits;
+		this.inQueueSince[size] = inQueueSince;
+		this.itemIds[size] = itemId;
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int compare(int a, int b) {
+		long weightA = weights[a];
+		long weightB = weights[b];
+		if (weightA != weightB) {
+			return weightA < weightB ? -1 : 1;
+		}
+		long sinceA = inQueueSince[a];
+		long sinceB = inQueueSince[b];
+		if (sinceA != sinceB) {
+			return sinceA < sinceB ? -1 : 1;
+		}
+		int idA = itemIds[a];
+		int idB = itemIds[b];
+		return idA < idB ? -1 : (idA == idB ? 0 : 1);
+	}
+
+	/**
+	 * @return the positions of the added items in sorted order
+	 */
+	int[] sort() {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		mergeSort(order, new int[size], 0, size);
+		return order;
+	}
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	void mergeSort(int[] order, int[] buffer, int from, int to) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			insertionSort(order, from, to);
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(order, buffer, from, middle);
+		mergeSort(order, buffer, middle, to);
+		merge(order, buffer, from, middle, to);
+	}
+
+	private void insertionSort(int[] order, int from, int to) {
+		for (int i = from + 1; i < to; i++) {
+			int position = order[i];
+			int j = i - 1;
+			while (j >= from && compare(order[j], position) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = position;
+		}
+	}
+
+	void merge(int[] order, int[] buffer, int from, int middle, int to) {
+		// Already in order, common when the queue has not changed much
+		if (compare(order[middle - 1], order[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
+	}
+
+	/**
+	 * Reorders the list in place so that the element at position <code>i</code> becomes the element
+	 * previously found at <code>order[i]</code>. The order array is used to mark visited positions
+	 * and is restored before returning.
+	 */
+	static <T> void permute(List<T> list, int[] order) {
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] < 0) {
+				continue;
+			}
+			T first = list.get(i);
+			int j = i;
+			while (true) {
+				int k = order[j];
+				order[j] = ~k;
+				if (k == i) {
+					list.set(j, first);
+					break;
+				}
+				list.set(j, list.get(k));
+				j = k;
+			}
+		}
+		for (int i = 0; i < order.length; i++) {
+			order[i] = ~order[i];
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Queue.Item;
+import hudson.model.Queue.WaitingItem;
+import hudson.util.DaemonThreadFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates the priority of items entering the queue with a quiet period on a worker pool instead
+ * of on the thread holding the queue lock, when enabled with {@link #ASYNC}. Until the item is
+ * published it is cached with the default priority and a provisional weight that sorts it last.
+ * <p>
+ * Only the priority is evaluated by the workers, the weight depends on the items assigned before it
+ * and is assigned by the queue thread in the order the items entered the queue. Evaluated items are
+ * published as soon as all items before them are published, an item that becomes buildable or blocked
+ * (or starts) is published at once and any earlier item not yet evaluated is evaluated directly, so
+ * the queue thread never waits for the workers.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class PriorityEvaluator {
+
+	private final static Logger LOGGER = Logger.getLogger(PriorityEvaluator.class.getName());
+
+	/**
+	 * Set the system property <code>jenkins.advancedqueue.sorter.PriorityEvaluator.async</code> to
+	 * <code>true</code> to evaluate the priorities of items with a quiet period in the background,
+	 * by default all priorities are evaluated when the item enters the queue
+	 */
+	static final boolean ASYNC = Boolean.getBoolean(PriorityEvaluator.class.getName() + ".async");
+
+	static final int THREADS = Integer.getInteger(PriorityEvaluator.class.getName() + ".threads", 2);
+
+	// Items becoming buildable sooner than this are evaluated directly
+	static final long MIN_QUIET_PERIOD_MILLIS = Long.getLong(PriorityEvaluator.class.getName() + ".minQuietPeriod", 1000L);
+
+	// Sorts an item that is not published yet after all published items
+	static final double PROVISIONAL_WEIGHT = Double.MAX_VALUE;
+
+	static private PriorityEvaluator priorityEvaluator = new PriorityEvaluator(null);
+
+	static public PriorityEvaluator get() {
+		return priorityEvaluator;
+	}
+
+	/**
+	 * An item waiting to be published, the evaluation is set once by a worker (or not at all) and the
+	 * item is published (or dropped) once by the queue thread.
+	 */
+	static class Pending {
+
+		private final Item item;
+
+		private final ItemInfo provisional;
+
+		private final AtomicReference<ItemInfo> evaluated;
+
+		private final AtomicBoolean published = new AtomicBoolean();
+
+		Pending(Item item, ItemInfo provisional, ItemInfo evaluated) {
+			this.item = item;
+			this.provisional = provisional;
+			this.evaluated = new AtomicReference<ItemInfo>(evaluated);
+		}
+
+		boolean isEvaluated() {
+			return evaluated.get() != null;
+		}
+
+	}
+
+	// Items not yet published in the order they entered the queue
+	private final Map<Integer, Pending> pending = new LinkedHashMap<Integer, Pending>();
+
+	private Executor executor;
+
+	PriorityEvaluator(Executor executor) {
+		this.executor = executor;
+	}
+
+	private synchronized Executor getExecutor() {
+		if (executor == null) {
+			ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+			threadPoolExecutor.allowCoreThreadTimeOut(true);
+			executor = threadPoolExecutor;
+		}
+		return executor;
+	}
+
+	/**
+	 * @return <code>true</code> if the item will wait long enough in the queue for the priority to be
+	 *         evaluated in the background
+	 */
+	boolean isAsync(Item item) {
+		if (!ASYNC || !(item instanceof WaitingItem)) {
+			return false;
+		}
+		WaitingItem waitingItem = (WaitingItem) item;
+		return waitingItem.timestamp != null
+				&& waitingItem.timestamp.getTimeInMillis() - System.currentTimeMillis() >= MIN_QUIET_PERIOD_MILLIS;
+	}
+
+	/**
+	 * @return <code>true</code> if an item is waiting to be published, a new item must then be
+	 *         submitted to get its weight after the waiting items
+	 */
+	synchronized boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Caches the item with a provisional weight until it is published.
+	 * 
+	 * @param item the new item
+	 * @param provisional the item to cache, it stays the cached instance when published
+	 * @param evaluated the evaluated item or <code>null</code> to evaluate it on a worker
+	 */
+	synchronized void submit(Item item, ItemInfo provisional, ItemInfo evaluated) {
+		QueueItemCache.get().addItem(provisional);
+		final Pending entry = new Pending(item, provisional, evaluated);
+		pending.put(provisional.getItemId(), entry);
+		if (evaluated != null) {
+			return;
+		}
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				// Skip the work if the queue thread got here first
+				if (entry.published.get()) {
+					return;
+				}
+				try {
+					entry.evaluated.compareAndSet(null, evaluate(entry.item, entry.provisional));
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Failed to evaluate the priority of " + entry.provisional.getJobName()
+							+ ", it is evaluated when published", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Publishes the item and all items that entered the queue before it, items not yet evaluated are
+	 * evaluated by the calling thread. Evaluated items following it are published as well.
+	 * 
+	 * @param itemId the item that must have its real weight when this method returns
+	 */
+	synchronized void publish(int itemId) {
+		if (pending.containsKey(itemId)) {
+			Iterator<Pending> iterator = pending.values().iterator();
+			while (iterator.hasNext()) {
+				Pending entry = iterator.next();
+				iterator.remove();
+				publish(entry);
+				if (entry.provisional.getItemId() == itemId) {
+					break;
+				}
+			}
+		}
+		publishEvaluated();
+	}
+
+	/**
+	 * Publishes the items that are evaluated and only follow published items.
+	 */
+	synchronized void publishEvaluated() {
+		Iterator<Pending> iterator = pending.values().iterator();
+		while (iterator.hasNext()) {
+			Pending entry = iterator.next();
+			if (!entry.isEvaluated()) {
+				return;
+			}
+			iterator.remove();
+			publish(entry);
+		}
+	}
+
+	private void publish(Pending entry) {
+		// Claim the entry, a worker finishing after this point is ignored
+		if (!entry.published.compareAndSet(false, true)) {
+			return;
+		}
+		ItemInfo evaluated = entry.evaluated.get();
+		if (evaluated == null) {
+			evaluated = evaluate(entry.item, entry.provisional);
+		}
+		assign(entry.item, entry.provisional, evaluated);
+	}
+
+	/**
+	 * Drops an item that left the queue without being published.
+	 */
+	synchronized void cancel(int itemId) {
+		Pending entry = pending.remove(itemId);
+		if (entry != null) {
+			entry.published.set(true);
+		}
+		// Items waiting for the dropped item can be published now
+		publishEvaluated();
+	}
+
+	/**
+	 * Resolves the priority of the item, called by the workers and by the queue thread.
+	 */
+	ItemInfo evaluate(Item item, ItemInfo provisional) {
+		return AdvancedQueueSorter.get().evaluatePriority(item);
+	}
+
+	/**
+	 * Assigns the weight of the evaluated item to the cached item, always called by the queue thread
+	 * and in the order the items entered the queue.
+	 */
+	void assign(Item item, ItemInfo provisional, ItemInfo evaluated) {
+		AdvancedQueueSorter.get().publish(item, provisional, evaluated);
+	}
+
+	/**
+	 * @return the number of items not yet published
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+}
@@ -27,16 +27,21 @@ import hudson.model.Queue.BlockedItem;
 import hudson.model.Queue.BuildableItem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
- * Keeps track of the Queue.Items seen by the Sorter. Uses a WeakHash to store the entries that have
- * left the queue, this can be used by Strategies that needs this info but still minimizes the need
- * to lookup the data again from Jenkins Core.
+ * Keeps track of the Queue.Items seen by the Sorter while they are in the queue, what is kept about
+ * started items is found in the {@link StartedJobIndex}.
+ * <p>
+ * All reads are lock-free so that views and dispatchers never wait for the queue maintenance thread,
+ * updates are serialized on the cache to keep the lookup maps and the sorted index consistent.
  * 
  * @author Magnus Sandberg
  * @since 2.3
@@ -56,9 +61,13 @@ public class QueueItemCache {
 	}
 
 	// Keeps track of all items currently in the queue
-	private Map<Integer, ItemInfo> item2info = new HashMap<Integer, ItemInfo>();
-	// Keeps track of the last started item of the Job
-	private Map<String, ItemInfo> jobName2info = new HashMap<String, ItemInfo>();
+	private ConcurrentIntMap<ItemInfo> item2info = new ConcurrentIntMap<ItemInfo>();
+	// Keeps all items currently in the queue ordered by weight, inQueueSince and itemId
+	private volatile NavigableSet<ItemInfo> sortedItems = new ConcurrentSkipListSet<ItemInfo>();
+	// Bumped on every change of the items or their weights, an unchanged generation means an unchanged order
+	private final AtomicLong generation = new AtomicLong();
+	// The sum of all offsets the weights have been rebased with
+	private volatile double weightOffset = 0D;
 
 	private QueueItemCache() {
 	}
@@ -70,29 +79,163 @@ public class QueueItemCache {
 	 * @return the {@link ItemInfo} for the provided id or <code>null</code> if the id is not in the
 	 *         queue
 	 */
-	synchronized public ItemInfo getItem(int itemId) {
+	public ItemInfo getItem(int itemId) {
 		return item2info.get(itemId);
 	}
 
 	/**
-	 * Get the ItemInfo for the last knows start of this Job Name
+	 * Adds the item to the cache, the weight of the {@link ItemInfo} must be assigned before the
+	 * item is added since it is used to place the item in the sorted index. If the weights have been
+	 * rebased since the weight of the item was assigned the weight is rebased as well.
 	 * 
-	 * @param jobName a name of a Job
-	 * @return the {@link ItemInfo} for the last know start of the Job
+	 * @param itemInfo the item to add
+	 * @return the added item
 	 */
-	synchronized public ItemInfo getItem(String jobName) {
-		return jobName2info.get(jobName);
-	}
-
 	synchronized public ItemInfo addItem(ItemInfo itemInfo) {
-		Integer itemId = new Integer(itemInfo.getItemId());
-		item2info.put(itemId, itemInfo);
-		jobName2info.put(itemInfo.getJobName(), itemInfo);
+		if (isRebaseNeeded(itemInfo)) {
+			itemInfo.setWeightSelection(getRebasedWeight(itemInfo));
+		}
+		ItemInfo previous = item2info.put(itemInfo.getItemId(), itemInfo);
+		if (previous != null) {
+			sortedItems.remove(previous);
+		}
+		sortedItems.add(itemInfo);
+		generation.incrementAndGet();
 		return itemInfo;
 	}
 
 	synchronized public ItemInfo removeItem(int itemId) {
-		return item2info.remove(itemId);
+		ItemInfo itemInfo = item2info.remove(itemId);
+		if (itemInfo != null) {
+			sortedItems.remove(itemInfo);
+			generation.incrementAndGet();
+		}
+		return itemInfo;
+	}
+
+	/**
+	 * Changes the weight of an item currently in the queue and moves it to its new position in the
+	 * sorted index. Weights of items in the cache must only be changed through this method (or
+	 * {@link #rebaseWeights(double)}) so that the index and the generation are kept up to date.
+	 * 
+	 * @param itemInfo the item to change
+	 * @param weight the new weight
+	 */
+	synchronized public void updateWeight(ItemInfo itemInfo, double weight) {
+		// The item may have been replaced by a rebased copy
+		ItemInfo cached = item2info.get(itemInfo.getItemId());
+		if (cached != null) {
+			itemInfo = cached;
+		}
+		boolean inIndex = sortedItems.remove(itemInfo);
+		itemInfo.setWeightSelection(weight);
+		if (inIndex) {
+			sortedItems.add(itemInfo);
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Subtracts the offset from the weight of all items currently in the queue, used by strategies
+	 * that renormalize their virtual time. The relative order of the items does not change.
+	 * <p>
+	 * The items are replaced by rebased copies in a new index, so readers of the old index or of
+	 * items looked up before the rebase keep seeing the weights from before the rebase. Items not yet
+	 * published by the {@link PriorityEvaluator} keep their provisional weight. Items assigned a weight
+	 * before the rebase but added after it are rebased when added, see
+	 * {@link #getRebasedWeight(ItemInfo)}.
+	 * 
+	 * @param offset the value to subtract from all weights
+	 */
+	synchronized public void rebaseWeights(double offset) {
+		weightOffset += offset;
+		NavigableSet<ItemInfo> rebasedItems = new ConcurrentSkipListSet<ItemInfo>();
+		for (ItemInfo itemInfo : sortedItems) {
+			if (isRebaseNeeded(itemInfo)) {
+				itemInfo = new ItemInfo(itemInfo, getRebasedWeight(itemInfo));
+				item2info.put(itemInfo.getItemId(), itemInfo);
+			}
+			rebasedItems.add(itemInfo);
+		}
+		sortedItems = rebasedItems;
+		generation.incrementAndGet();
+		LOGGER.fine("Rebased the weight of " + rebasedItems.size() + " items with " + offset);
+	}
+
+	/**
+	 * @return the sum of all offsets the weights have been rebased with
+	 */
+	double getWeightOffset() {
+		return weightOffset;
+	}
+
+	private boolean isRebaseNeeded(ItemInfo itemInfo) {
+		return itemInfo.getWeightOffset() != weightOffset && itemInfo.getExactWeight() != PriorityEvaluator.PROVISIONAL_WEIGHT;
+	}
+
+	/**
+	 * Gets the weight of the item moved by the offsets the weights have been rebased with since the
+	 * weight of the item was assigned, for items assigned a weight but not yet added to the cache.
+	 * 
+	 * @param itemInfo the item
+	 * @return the weight to use now
+	 */
+	double getRebasedWeight(ItemInfo itemInfo) {
+		if (!isRebaseNeeded(itemInfo)) {
+			return itemInfo.getExactWeight();
+		}
+		return itemInfo.getExactWeight() - (weightOffset - itemInfo.getWeightOffset());
+	}
+
+	/**
+	 * @return a counter that changes whenever an item is added or removed or the weight of an item
+	 *         changes
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @return the number of items currently in the queue
+	 */
+	public int size() {
+		return item2info.size();
+	}
+
+	/**
+	 * Gets the ids of all items currently in the queue in the order they should be built, that is
+	 * ordered by weight, inQueueSince and itemId. The order is maintained when items are added and
+	 * removed so this is a linear copy of the index and not a sort.
+	 * 
+	 * @return the ordered itemIds/queueIds
+	 */
+	public int[] getSortedItemIds() {
+		// The index is concurrently updated so the size is only a hint
+		int[] itemIds = new int[item2info.size() + 16];
+		int i = 0;
+		for (ItemInfo itemInfo : sortedItems) {
+			if (i == itemIds.length) {
+				itemIds = Arrays.copyOf(itemIds, i * 2);
+			}
+			itemIds[i++] = itemInfo.getItemId();
+		}
+		return Arrays.copyOf(itemIds, i);
+	}
+
+	/**
+	 * Gets a read-only view of the items currently in the queue in the order they should be built.
+	 * Nothing is copied, the view iterates the sorted index directly and is weakly consistent, that
+	 * is it is never invalidated by concurrent updates but it may or may not reflect them.
+	 * 
+	 * @param after the item to start after or <code>null</code> to start from the first item
+	 * @return the sorted items following <code>after</code>
+	 */
+	public Collection<ItemInfo> getSortedItems(ItemInfo after) {
+		NavigableSet<ItemInfo> items = sortedItems;
+		if (after != null) {
+			items = items.tailSet(after, false);
+		}
+		return Collections.unmodifiableCollection(items);
 	}
 
 	/**
@@ -101,9 +244,7 @@ public class QueueItemCache {
 	 * 
 	 * @return the sorted list of all {@link ItemInfo}s
 	 */
-	synchronized public List<ItemInfo> getSortedList() {
-		ArrayList<ItemInfo> list = new ArrayList<ItemInfo>(item2info.values());
-		Collections.sort(list);
-		return Collections.unmodifiableList(list);
+	public List<ItemInfo> getSortedList() {
+		return Collections.unmodifiableList(new ArrayList<ItemInfo>(sortedItems));
 	}
 }
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.Iterator;
+
+import jenkins.advancedqueue.priority.PriorityStrategy;
+import net.sf.json.util.JSONUtils;
+
+/**
+ * Writes a page of the sorted queue as JSON directly to a {@link Writer} while iterating the items,
+ * nothing is collected or copied so the cost of a request is proportional to the page and not to
+ * the queue.
+ * <p>
+ * The page is written as
+ * <code>{"items":[{...}],"start":0,"count":10,"next":4711}</code> where <code>next</code> is the
+ * itemId to continue after or <code>null</code> if this was the last page.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class QueueJsonWriter {
+
+	public enum Field {
+
+		ITEM_ID("itemId") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getItemId());
+			}
+		},
+		JOB_NAME("jobName") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return quote(itemInfo.getJobName());
+			}
+		},
+		PRIORITY("priority") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getPriority());
+			}
+		},
+		WEIGHT("weight") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getExactWeight());
+			}
+		},
+		JOB_GROUP_ID("jobGroupId") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getJobGroupId());
+			}
+		},
+		STATUS("status") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return quote(itemInfo.getItemStatus() == null ? null : itemInfo.getItemStatus().name());
+			}
+		},
+		IN_QUEUE_SINCE("inQueueSince") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getInQueueSince());
+			}
+		},
+		BUILDABLE_SINCE("buildableSince") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getBuildableSince());
+			}
+		},
+		BLOCKED_SINCE("blockedSince") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				return String.valueOf(itemInfo.getBlockedSince());
+			}
+		},
+		REASON("reason") {
+			@Override
+			String getValue(ItemInfo itemInfo) {
+				PriorityStrategy reason = itemInfo.getPriorityStrategy();
+				return quote(reason == null ? null : reason.getDescriptor().getDisplayName());
+			}
+		};
+
+		private final String jsonName;
+
+		private Field(String name) {
+			this.jsonName = name;
+		}
+
+		public String getName() {
+			return jsonName;
+		}
+
+		abstract String getValue(ItemInfo itemInfo);
+
+		/**
+		 * @param fields a comma separated list of field names, <code>null</code> or empty for all
+		 *            fields
+		 * @throws IllegalArgumentException if a field is not known
+		 */
+		public static EnumSet<Field> parse(String fields) {
+			if (fields == null || fields.trim().length() == 0) {
+				return EnumSet.allOf(Field.class);
+			}
+			EnumSet<Field> result = EnumSet.noneOf(Field.class);
+			for (String name : fields.split(",")) {
+				result.add(forName(name.trim()));
+			}
+			return result;
+		}
+
+		private static Field forName(String name) {
+			for (Field field : values()) {
+				if (field.jsonName.equals(name)) {
+					return field;
+				}
+			}
+			throw new IllegalArgumentException("Unknown field: " + name);
+		}
+
+	}
+
+	/**
+	 * Decides which items are written, items filtered out are neither written nor counted by
+	 * <code>start</code>.
+	 */
+	public interface ItemFilter {
+
+		boolean isVisible(ItemInfo itemInfo);
+
+	}
+
+	private static final ItemFilter ALL_ITEMS = new ItemFilter() {
+		public boolean isVisible(ItemInfo itemInfo) {
+			return true;
+		}
+	};
+
+	private final EnumSet<Field> fields;
+
+	private final int start;
+
+	private final int limit;
+
+	/**
+	 * @param fields the fields to write for each item
+	 * @param start the number of items to skip
+	 * @param limit the maximum number of items to write
+	 */
+	public QueueJsonWriter(EnumSet<Field> fields, int start, int limit) {
+		this.fields = fields;
+		this.start = Math.max(0, start);
+		this.limit = Math.max(0, limit);
+	}
+
+	public void write(Iterable<ItemInfo> items, Writer out) throws IOException {
+		write(items, ALL_ITEMS, out);
+	}
+
+	public void write(Iterable<ItemInfo> items, ItemFilter filter, Writer out) throws IOException {
+		Iterator<ItemInfo> iterator = items.iterator();
+		ItemInfo next = nextVisible(iterator, filter);
+		for (int i = 0; i < start && next != null; i++) {
+			next = nextVisible(iterator, filter);
+		}
+		out.write("{\"items\":[");
+		int count = 0;
+		ItemInfo last = null;
+		while (count < limit && next != null) {
+			last = next;
+			if (count > 0) {
+				out.write(',');
+			}
+			writeItem(last, out);
+			count++;
+			next = nextVisible(iterator, filter);
+		}
+		out.write("],\"start\":");
+		out.write(String.valueOf(start));
+		out.write(",\"count\":");
+		out.write(String.valueOf(count));
+		out.write(",\"next\":");
+		out.write(last != null && next != null ? String.valueOf(last.getItemId()) : "null");
+		out.write('}');
+		out.flush();
+	}
+
+	private static ItemInfo nextVisible(Iterator<ItemInfo> iterator, ItemFilter filter) {
+		while (iterator.hasNext()) {
+			ItemInfo itemInfo = iterator.next();
+			if (filter.isVisible(itemInfo)) {
+				return itemInfo;
+			}
+		}
+		return null;
+	}
+
+	private void writeItem(ItemInfo itemInfo, Writer out) throws IOException {
+		out.write('{');
+		boolean first = true;
+		for (Field field : fields) {
+			if (!first) {
+				out.write(',');
+			}
+			out.write('"');
+			out.write(field.getName());
+			out.write("\":");
+			out.write(field.getValue(itemInfo));
+			first = false;
+		}
+		out.write('}');
+	}
+
+	private static String quote(String value) {
+		return value == null ? "null" : JSONUtils.quote(value);
+	}
+
+}
@@ -0,0 +1,403 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.advancedqueue.JobGroup;
+import jenkins.advancedqueue.PriorityConfiguration;
+import jenkins.advancedqueue.PrioritySorterConfiguration;
+import jenkins.advancedqueue.priority.PriorityStrategy;
+import jenkins.model.Jenkins;
+
+/**
+ * A snapshot of the priorities and weights of the items in the queue and of the state of the
+ * {@link SorterStrategy}, saved periodically and when Jenkins stops so that the restored queue keeps
+ * its order and fairness after a restart without evaluating the priorities again.
+ * <p>
+ * The snapshot is a flat binary file. The {@link PriorityStrategy} that decided the priority of an
+ * item is saved as its id in the JobGroup and its class and is found again in the JobGroup when the
+ * snapshot is restored, if the JobGroup no longer has it the item is restored without a strategy.
+ * Only the items that are buildable when the QueueSorter is initialized are restored, items that
+ * are still waiting or blocked get their priority evaluated again when they enter the queue.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class QueueSnapshot {
+
+	private final static Logger LOGGER = Logger.getLogger(QueueSnapshot.class.getName());
+
+	static final String FILE_NAME = QueueSnapshot.class.getName() + ".bin";
+
+	// Starts the file, changed when the format is changed
+	private static final int MAGIC = 0x50534e01;
+
+	// The id of no strategy
+	static final int NO_STRATEGY = -1;
+
+	/**
+	 * What is kept about an item, the id, inQueueSince and job name must all match for a restored
+	 * Queue.Item to be considered the same item.
+	 */
+	static class Entry {
+
+		private int itemId;
+
+		private long inQueueSince;
+
+		private String jobName;
+
+		private int priority;
+
+		private int jobGroupId;
+
+		private double weight;
+
+		// The id and class of the PriorityStrategy in the JobGroup
+		private int strategyId = NO_STRATEGY;
+
+		private String strategyClass;
+
+		private Entry() {
+		}
+
+		Entry(ItemInfo itemInfo, int strategyId) {
+			this.itemId = itemInfo.getItemId();
+			this.inQueueSince = itemInfo.getInQueueSince();
+			this.jobName = itemInfo.getJobName();
+			this.priority = itemInfo.getPriority();
+			this.jobGroupId = itemInfo.getJobGroupId();
+			this.weight = itemInfo.getExactWeight();
+			if (strategyId != NO_STRATEGY && itemInfo.getPriorityStrategy() != null) {
+				this.strategyId = strategyId;
+				this.strategyClass = itemInfo.getPriorityStrategy().getClass().getName();
+			}
+		}
+
+		boolean matches(int itemId, long inQueueSince, String jobName) {
+			return this.itemId == itemId && this.inQueueSince == inQueueSince && this.jobName != null
+					&& this.jobName.equals(jobName);
+		}
+
+		int getJobGroupId() {
+			return jobGroupId;
+		}
+
+		/**
+		 * @param holders the strategies of the JobGroup of the item or <code>null</code>
+		 */
+		ItemInfo toItemInfo(List<JobGroup.PriorityStrategyHolder> holders) {
+			ItemInfo itemInfo = new ItemInfo(itemId, inQueueSince, jobName);
+			itemInfo.setPrioritySelection(priority, jobGroupId, findStrategy(holders, strategyId, strategyClass));
+			itemInfo.setWeightSelection(weight);
+			return itemInfo;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(itemId);
+			out.writeLong(inQueueSince);
+			out.writeUTF(jobName);
+			out.writeInt(priority);
+			out.writeInt(jobGroupId);
+			out.writeDouble(weight);
+			out.writeInt(strategyId);
+			if (strategyId != NO_STRATEGY) {
+				out.writeUTF(strategyClass);
+			}
+		}
+
+		private static Entry read(DataInputStream in) throws IOException {
+			Entry entry = new Entry();
+			entry.itemId = in.readInt();
+			entry.inQueueSince = in.readLong();
+			entry.jobName = in.readUTF();
+			entry.priority = in.readInt();
+			entry.jobGroupId = in.readInt();
+			entry.weight = in.readDouble();
+			entry.strategyId = in.readInt();
+			if (entry.strategyId != NO_STRATEGY) {
+				entry.strategyClass = in.readUTF();
+			}
+			return entry;
+		}
+
+	}
+
+	// The class of the SorterStrategy the weights and state belong to
+	private String strategy;
+
+	private int numberOfPriorities;
+
+	private long[] strategyState;
+
+	private long savedAt;
+
+	private List<Entry> items;
+
+	private long generation;
+
+	private QueueSnapshot() {
+	}
+
+	QueueSnapshot(String strategy, int numberOfPriorities, long[] strategyState, List<Entry> items) {
+		this.strategy = strategy;
+		this.numberOfPriorities = numberOfPriorities;
+		this.strategyState = strategyState;
+		this.savedAt = System.currentTimeMillis();
+		this.items = items;
+	}
+
+	/**
+	 * Takes a snapshot of the {@link QueueItemCache} and the current {@link SorterStrategy}.
+	 */
+	static QueueSnapshot capture() {
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		// Read first, a change while copying makes the next periodic save write again
+		long generation = queueItemCache.getGeneration();
+		SorterStrategy sorterStrategy = PrioritySorterConfiguration.get().getStrategy();
+		List<Entry> items = new ArrayList<Entry>(queueItemCache.size());
+		for (ItemInfo itemInfo : queueItemCache.getSortedItems(null)) {
+			// Items still being evaluated are evaluated again after a restart
+			if (itemInfo.getExactWeight() != PriorityEvaluator.PROVISIONAL_WEIGHT) {
+				int strategyId = getStrategyId(getPriorityStrategies(itemInfo.getJobGroupId()),
+						itemInfo.getPriorityStrategy());
+				items.add(new Entry(itemInfo, strategyId));
+			}
+		}
+		QueueSnapshot snapshot = new QueueSnapshot(sorterStrategy.getClass().getName(),
+				sorterStrategy.getNumberOfPriorities(), sorterStrategy.getState(), items);
+		snapshot.generation = generation;
+		return snapshot;
+	}
+
+	/**
+	 * @return the strategies of the JobGroup or <code>null</code> if there is no such JobGroup
+	 */
+	static List<JobGroup.PriorityStrategyHolder> getPriorityStrategies(int jobGroupId) {
+		JobGroup jobGroup = PriorityConfiguration.get().getJobGroup(jobGroupId);
+		return jobGroup == null ? null : jobGroup.getPriorityStrategies();
+	}
+
+	/**
+	 * @return the id of the holder of the strategy or {@link #NO_STRATEGY} if not found
+	 */
+	static int getStrategyId(List<JobGroup.PriorityStrategyHolder> holders, PriorityStrategy strategy) {
+		if (holders != null && strategy != null) {
+			for (JobGroup.PriorityStrategyHolder holder : holders) {
+				if (holder.getPriorityStrategy() == strategy) {
+					return holder.getId();
+				}
+			}
+		}
+		return NO_STRATEGY;
+	}
+
+	/**
+	 * @return the strategy with the id if it still has the class or <code>null</code>
+	 */
+	static PriorityStrategy findStrategy(List<JobGroup.PriorityStrategyHolder> holders, int strategyId,
+			String strategyClass) {
+		if (holders != null && strategyId != NO_STRATEGY) {
+			for (JobGroup.PriorityStrategyHolder holder : holders) {
+				PriorityStrategy strategy = holder.getPriorityStrategy();
+				if (holder.getId() == strategyId && strategy != null
+						&& strategy.getClass().getName().equals(strategyClass)) {
+					return strategy;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> if the snapshot was taken with the same strategy and number of
+	 *         priorities, otherwise the weights cannot be compared with new weights
+	 */
+	boolean isCompatible(SorterStrategy sorterStrategy) {
+		return sorterStrategy.getClass().getName().equals(strategy)
+				&& sorterStrategy.getNumberOfPriorities() == numberOfPriorities;
+	}
+
+	long[] getStrategyState() {
+		return strategyState;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the saved items by itemId
+	 */
+	Map<Integer, Entry> getItems() {
+		Map<Integer, Entry> id2entry = new HashMap<Integer, Entry>();
+		if (items != null) {
+			for (Entry entry : items) {
+				id2entry.put(entry.itemId, entry);
+			}
+		}
+		return id2entry;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(strategy);
+		out.writeInt(numberOfPriorities);
+		out.writeLong(savedAt);
+		if (strategyState == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(strategyState.length);
+			for (long value : strategyState) {
+				out.writeLong(value);
+			}
+		}
+		out.writeInt(items.size());
+		for (Entry entry : items) {
+			entry.write(out);
+		}
+	}
+
+	static QueueSnapshot read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a queue snapshot or written in an unknown format");
+		}
+		QueueSnapshot snapshot = new QueueSnapshot();
+		snapshot.strategy = in.readUTF();
+		snapshot.numberOfPriorities = in.readInt();
+		snapshot.savedAt = in.readLong();
+		int stateLength = in.readInt();
+		if (stateLength >= 0) {
+			snapshot.strategyState = new long[stateLength];
+			for (int i = 0; i < stateLength; i++) {
+				snapshot.strategyState[i] = in.readLong();
+			}
+		}
+		int size = in.readInt();
+		snapshot.items = new ArrayList<Entry>(size);
+		for (int i = 0; i < size; i++) {
+			snapshot.items.add(Entry.read(in));
+		}
+		return snapshot;
+	}
+
+	private static File getFile() {
+		return new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+	}
+
+	void save() throws IOException {
+		File file = getFile();
+		// Written aside and moved in place so that a crash never leaves a partial snapshot
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Cannot rename over an existing file on all platforms
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+		LOGGER.fine("Saved a snapshot of " + items.size() + " queued items");
+	}
+
+	/**
+	 * @return the saved snapshot or <code>null</code> if there is none or it could not be read
+	 */
+	static QueueSnapshot load() {
+		File file = getFile();
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to read the queue snapshot, the priorities will be evaluated again", e);
+		}
+		return null;
+	}
+
+	// The generation of the QueueItemCache when last saved
+	static private volatile long savedGeneration = -1;
+
+	/**
+	 * Saves a snapshot unless nothing has changed since the last one. Synchronized since the periodic
+	 * save and the save when Jenkins stops write the same temporary file.
+	 */
+	static synchronized public void saveIfChanged() {
+		if (PrioritySorterConfiguration.get().getLegacyMode()
+				|| QueueItemCache.get().getGeneration() == savedGeneration) {
+			return;
+		}
+		QueueSnapshot snapshot = capture();
+		try {
+			snapshot.save();
+			savedGeneration = snapshot.getGeneration();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to save the queue snapshot", e);
+		}
+	}
+
+	@Extension
+	static public class QueueSnapshotWork extends PeriodicWork {
+
+		@Override
+		public long getRecurrencePeriod() {
+			return MIN;
+		}
+
+		@Override
+		protected void doRun() throws Exception {
+			saveIfChanged();
+		}
+
+	}
+
+}
@@ -56,13 +56,76 @@ public abstract class SorterStrategy extends ExtensionPoint implements Describab
 	 */
 	public abstract SorterStrategyCallback onNewItem(Queue.Item item, SorterStrategyCallback weightCallback);
 
+	/**
+	 * Gets the weight {@link #onNewItem(Queue.Item, SorterStrategyCallback)} would give the item with
+	 * the priority, without changing the state of the strategy. Used to re-weight items already in the
+	 * queue.
+	 * <p>
+	 * The default asks {@link #onNewItem(Queue.Item, SorterStrategyCallback)}, strategies that keep
+	 * state should override it.
+	 * 
+	 * @param item the item in the queue
+	 * @param priority the priority to get the weight for
+	 * @return the weight
+	 * @since 2.7
+	 */
+	public double getWeightForPriority(Queue.Item item, final int priority) {
+		final double[] weight = new double[1];
+		onNewItem(item, new AbstractSorterStrategyCallback() {
+			public int getPriority() {
+				return priority;
+			}
+
+			@Override
+			public SorterStrategyCallback setWeightSelection(double selectedWeight) {
+				weight[0] = selectedWeight;
+				return this;
+			}
+		});
+		return weight[0];
+	}
+
+	/**
+	 * Called when a {@link hudson.model.Item} leaves the queue and it is started.
+	 * 
+	 * @param item the {@link hudson.model.LeftItem}
+	 * @param weight the weight assigned when the item entered the queue
+	 * @since 2.7
+	 */
+	public void onStartedItem(LeftItem item, double weight) {
+		// Strategies written before 2.7 only implement the float version
+		if (isFloatOnStartedItemOverridden()) {
+			onStartedItem(item, (float) weight);
+		}
+	}
+
 	/**
 	 * Called when a {@link hudson.model.Item} leaves the queue and it is started.
 	 * 
 	 * @param item the {@link hudson.model.LeftItem}
 	 * @param weight the weight assigned when the item entered the queue
+	 * @deprecated weights are doubles since 2.7, use {@link #onStartedItem(LeftItem, double)}
 	 */
+	@Deprecated
 	public void onStartedItem(LeftItem item, float weight) {
+		// When overridden this is only reached by a call to super, which did nothing before 2.7
+		if (!isFloatOnStartedItemOverridden()) {
+			onStartedItem(item, (double) weight);
+		}
+	}
+
+	private transient volatile Boolean floatOnStartedItemOverridden;
+
+	private boolean isFloatOnStartedItemOverridden() {
+		if (floatOnStartedItemOverridden == null) {
+			try {
+				floatOnStartedItemOverridden = getClass().getMethod("onStartedItem", LeftItem.class, float.class)
+						.getDeclaringClass() != SorterStrategy.class;
+			} catch (NoSuchMethodException e) {
+				floatOnStartedItemOverridden = false;
+			}
+		}
+		return floatOnStartedItemOverridden;
 	}
 
 	/**
@@ -71,6 +134,27 @@ public abstract class SorterStrategy extends ExtensionPoint implements Describab
 	public void onCanceledItem(LeftItem item) {
 	};
 
+	/**
+	 * Gets the state the strategy keeps about the items seen before, persisted with the queue so
+	 * that it survives a restart.
+	 * 
+	 * @return the state or <code>null</code> if the strategy does not keep any
+	 * @since 2.7
+	 */
+	public long[] getState() {
+		return null;
+	}
+
+	/**
+	 * Restores a state returned by {@link #getState()}, called at startup before any new item is
+	 * assigned a weight.
+	 * 
+	 * @param state the state to restore
+	 * @since 2.7
+	 */
+	public void setState(long[] state) {
+	}
+
 	/**
 	 * Gets number of priority buckets to be used.
 	 * 
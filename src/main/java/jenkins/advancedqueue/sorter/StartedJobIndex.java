@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter;
+
+import hudson.Extension;
+
+import jenkins.advancedqueue.FullNameItemListener;
+import jenkins.advancedqueue.SecondChanceCache;
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+/**
+ * Keeps the priority of the last started item of a Job, keyed by the full name of the Job. Used to
+ * show the priority of Jobs and to give MatrixConfigurations the priority of their MatrixProject.
+ * <p>
+ * The index is a {@link SecondChanceCache}, the capacity is set with the system property
+ * <code>jenkins.advancedqueue.sorter.StartedJobIndex.capacity</code>.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class StartedJobIndex {
+
+	static final int DEFAULT_CAPACITY = 10000;
+
+	static private StartedJobIndex startedJobIndex = new StartedJobIndex(Integer.getInteger(
+			StartedJobIndex.class.getName() + ".capacity", DEFAULT_CAPACITY));
+
+	static public StartedJobIndex get() {
+		return startedJobIndex;
+	}
+
+	/**
+	 * What is kept about the last started item of a Job
+	 */
+	public static class StartedJob {
+
+		private final String jobName;
+
+		private final int priority;
+
+		private final int jobGroupId;
+
+		private final PriorityStrategy priorityStrategy;
+
+		StartedJob(String jobName, int priority, int jobGroupId, PriorityStrategy priorityStrategy) {
+			this.jobName = jobName;
+			this.priority = priority;
+			this.jobGroupId = jobGroupId;
+			this.priorityStrategy = priorityStrategy;
+		}
+
+		/**
+		 * @return the full name of the Job
+		 */
+		public String getJobName() {
+			return jobName;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public int getJobGroupId() {
+			return jobGroupId;
+		}
+
+		public PriorityStrategy getPriorityStrategy() {
+			return priorityStrategy;
+		}
+
+	}
+
+	private final SecondChanceCache<StartedJob> jobName2started;
+
+	StartedJobIndex(int capacity) {
+		jobName2started = new SecondChanceCache<StartedJob>(capacity);
+	}
+
+	/**
+	 * @param jobFullName the full name of a Job
+	 * @return what is known about the last started item of the Job or <code>null</code> if not known
+	 */
+	public StartedJob get(String jobFullName) {
+		return jobName2started.get(jobFullName);
+	}
+
+	/**
+	 * Records the started item, replaces any previous entry of the Job.
+	 * 
+	 * @param jobFullName the full name of the Job
+	 * @param itemInfo the started item
+	 */
+	public void put(String jobFullName, ItemInfo itemInfo) {
+		jobName2started.put(jobFullName, new StartedJob(jobFullName, itemInfo.getPriority(), itemInfo.getJobGroupId(),
+				itemInfo.getPriorityStrategy()));
+	}
+
+	public void remove(String jobFullName) {
+		jobName2started.remove(jobFullName);
+	}
+
+	/**
+	 * Keeps the entry of a renamed Job under its new name.
+	 */
+	public void rename(String oldFullName, String newFullName) {
+		StartedJob startedJob = jobName2started.get(oldFullName);
+		if (startedJob != null) {
+			remove(oldFullName);
+			jobName2started.put(newFullName, new StartedJob(newFullName, startedJob.getPriority(),
+					startedJob.getJobGroupId(), startedJob.getPriorityStrategy()));
+		}
+	}
+
+	public int getCapacity() {
+		return jobName2started.getCapacity();
+	}
+
+	/**
+	 * @return the number of Jobs in the index
+	 */
+	public int size() {
+		return jobName2started.size();
+	}
+
+	/**
+	 * @return the number of Jobs evicted since Jenkins was started
+	 */
+	public long getEvictions() {
+		return jobName2started.getEvictions();
+	}
+
+	@Extension
+	static public class StartedJobIndexItemListener extends FullNameItemListener {
+
+		@Override
+		protected void onDeleted(String fullName) {
+			get().remove(fullName);
+		}
+
+		@Override
+		protected void onRenamed(String oldFullName, String newFullName) {
+			get().rename(oldFullName, newFullName);
+		}
+
+	}
+
+}
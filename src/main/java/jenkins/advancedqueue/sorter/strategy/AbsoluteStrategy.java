@@ -23,6 +23,8 @@
  */
 package jenkins.advancedqueue.sorter.strategy;
 
+import static jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback.selectWeight;
+
 import hudson.Extension;
 import hudson.model.Queue;
 import jenkins.advancedqueue.sorter.SorterStrategyCallback;
@@ -46,7 +48,12 @@ public class AbsoluteStrategy extends MultiBucketStrategy {
 
 	@Override
 	public SorterStrategyCallback onNewItem(Queue.Item item, SorterStrategyCallback weightCallback) {
-		return weightCallback.setWeightSelection(weightCallback.getPriority());
+		return selectWeight(weightCallback, weightCallback.getPriority());
+	}
+
+	@Override
+	public double getWeightForPriority(Queue.Item item, int priority) {
+		return priority;
 	}
 
 	@Extension
@@ -23,25 +23,74 @@
  */
 package jenkins.advancedqueue.sorter.strategy;
 
+import static jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback.selectWeight;
+
 import hudson.model.Queue;
 import hudson.model.Queue.LeftItem;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
+import jenkins.advancedqueue.sorter.QueueItemCache;
 import jenkins.advancedqueue.sorter.SorterStrategyCallback;
 
 /**
+ * Base for the fair queuing strategies. The virtual time is kept as a fixed-point clock of
+ * <code>long</code> ticks, {@link #TICKS_PER_WEIGHT} ticks being a weight of 1, so that every step is
+ * exact however long Jenkins has been running. When the clock gets large it is renormalized, all
+ * ticks and the weights of the items in the {@link QueueItemCache} are moved down by the same amount.
+ * 
  * @author Magnus Sandberg
  * @since 2.0
  */
 abstract public class FQBaseStrategy extends MultiBucketStrategy {
+
+	private final static Logger LOGGER = Logger.getLogger(FQBaseStrategy.class.getName());
 	//
-	static final protected float MIN_STEP_SIZE = 0.00001F;
-	// Keeps track on the last assigned weight for a given priority
-	static Map<Integer, Float> prio2weight = new HashMap<Integer, Float>();
-	// Keeps track on the max weight of started jobs
-	transient private float maxStartedWeight = 1F;
+	static final protected long TICKS_PER_WEIGHT = 100000L;
+	// The smallest step, in ticks, that a priority is moved for each new item
+	static final protected long MIN_STEP_SIZE = 1L;
+	// Renormalize well before the ticks lose precision as double weights (2^53)
+	static final long DEFAULT_RENORMALIZE_THRESHOLD = 1L << 50;
+
+	/**
+	 * The virtual time of the strategy, a zero entry is a priority that has not been assigned a weight
+	 * yet. A renormalization replaces the whole instance.
+	 */
+	private static class VirtualTime {
+		// Keeps track on the last assigned ticks for a given priority
+		final AtomicReference<AtomicLongArray> prio2ticks;
+		// Keeps track on the max ticks of started jobs
+		final AtomicLong maxStartedTicks;
+
+		VirtualTime(int numberOfPriorities, long maxStartedTicks) {
+			this.prio2ticks = new AtomicReference<AtomicLongArray>(new AtomicLongArray(numberOfPriorities + 1));
+			this.maxStartedTicks = new AtomicLong(maxStartedTicks);
+		}
+
+		AtomicLongArray getTicks(int priority) {
+			AtomicLongArray ticks = prio2ticks.get();
+			while (priority >= ticks.length()) {
+				// Only for priorities outside of the configured range, an update
+				// racing with the copy can be lost which at most gives two items
+				// the same weight
+				AtomicLongArray grown = new AtomicLongArray(priority + 1);
+				for (int i = 0; i < ticks.length(); i++) {
+					grown.set(i, ticks.get(i));
+				}
+				prio2ticks.compareAndSet(ticks, grown);
+				ticks = prio2ticks.get();
+			}
+			return ticks;
+		}
+	}
+
+	// Created on first use since the strategy is also created by XStream
+	transient private volatile VirtualTime virtualTime;
+
+	transient long renormalizeThreshold = DEFAULT_RENORMALIZE_THRESHOLD;
 
 	public FQBaseStrategy() {
 	}
@@ -50,46 +99,132 @@ abstract public class FQBaseStrategy extends MultiBucketStrategy {
 		super(numberOfPriorities, defaultPriority);
 	}
 
+	private VirtualTime getVirtualTime() {
+		VirtualTime current = virtualTime;
+		if (current == null) {
+			synchronized (this) {
+				if (virtualTime == null) {
+					virtualTime = new VirtualTime(getNumberOfPriorities(), TICKS_PER_WEIGHT);
+				}
+				current = virtualTime;
+			}
+		}
+		return current;
+	}
+
+	static long toTicks(double weight) {
+		return Math.round(weight * TICKS_PER_WEIGHT);
+	}
+
+	static double toWeight(long ticks) {
+		return ticks / (double) TICKS_PER_WEIGHT;
+	}
+
 	@Override
-	public void onStartedItem(LeftItem item, float weight) {
-		maxStartedWeight = Math.max(maxStartedWeight, weight);
+	public void onStartedItem(LeftItem item, double weight) {
+		long ticks = toTicks(weight);
+		AtomicLong maxStartedTicks = getVirtualTime().maxStartedTicks;
+		long current = maxStartedTicks.get();
+		while (ticks > current) {
+			if (maxStartedTicks.compareAndSet(current, ticks)) {
+				return;
+			}
+			current = maxStartedTicks.get();
+		}
 	}
 
 	public SorterStrategyCallback onNewItem(Queue.Item item, SorterStrategyCallback weightCallback) {
 		int priority = weightCallback.getPriority();
-		float minimumWeightToAssign = getMinimumWeightToAssign(priority);
-		float weightToUse = getWeightToUse(priority, minimumWeightToAssign);
-		prio2weight.put(priority, weightToUse);
-		return weightCallback.setWeightSelection(weightToUse);
+		while (true) {
+			VirtualTime current = getVirtualTime();
+			AtomicLongArray prio2ticks = current.getTicks(priority);
+			long lastTicks = prio2ticks.get(priority);
+			long ticksToUse = getTicksToUse(priority, Math.max(current.maxStartedTicks.get(), lastTicks));
+			if (ticksToUse > renormalizeThreshold && renormalize(current)) {
+				continue;
+			}
+			// Retry if another item got the ticks first or the clock was renormalized
+			if (prio2ticks.compareAndSet(priority, lastTicks, ticksToUse) && current == virtualTime) {
+				return selectWeight(weightCallback, toWeight(ticksToUse));
+			}
+		}
+	}
+
+	@Override
+	public double getWeightForPriority(Queue.Item item, int priority) {
+		VirtualTime current = getVirtualTime();
+		AtomicLongArray prio2ticks = current.prio2ticks.get();
+		long lastTicks = priority < prio2ticks.length() ? prio2ticks.get(priority) : 0L;
+		return toWeight(getTicksToUse(priority, Math.max(current.maxStartedTicks.get(), lastTicks)));
+	}
+
+	/**
+	 * @return the first step of the priority after the minimum
+	 */
+	long getTicksToUse(int priority, long minimumTicksToAssign) {
+		long stepSize = Math.max(MIN_STEP_SIZE, getStepSize(priority));
+		return (minimumTicksToAssign / stepSize + 1) * stepSize;
 	}
 
-	protected float getMinimumWeightToAssign(int priority) {
-		Float minWeight = prio2weight.get(priority);
-		if (minWeight == null) {
-			return maxStartedWeight;
+	/**
+	 * Moves the clock back so that the max started ticks becomes a weight of 1 again, the weights of
+	 * queued items are moved the same amount so the order between new and queued items is kept.
+	 * 
+	 * @return <code>false</code> if there was nothing to renormalize
+	 */
+	private synchronized boolean renormalize(VirtualTime current) {
+		if (current != virtualTime) {
+			// Already done by another thread
+			return true;
 		}
-		return Math.max(maxStartedWeight, minWeight);
+		long offset = current.maxStartedTicks.get() - TICKS_PER_WEIGHT;
+		if (offset <= 0) {
+			return false;
+		}
+		VirtualTime renormalized = new VirtualTime(getNumberOfPriorities(), TICKS_PER_WEIGHT);
+		AtomicLongArray prio2ticks = current.prio2ticks.get();
+		for (int priority = 0; priority < prio2ticks.length(); priority++) {
+			long ticks = prio2ticks.get(priority) - offset;
+			// Priorities behind the started items are the same as not assigned
+			if (ticks > TICKS_PER_WEIGHT) {
+				renormalized.getTicks(priority).set(priority, ticks);
+			}
+		}
+		virtualTime = renormalized;
+		QueueItemCache.get().rebaseWeights(toWeight(offset));
+		LOGGER.info("Renormalized the virtual time of " + getClass().getSimpleName() + " by " + offset + " ticks");
+		return true;
 	}
 
-	protected float getWeightToUse(int priority, float minimumWeightToAssign) {
-		float stepSize = getStepSize(priority);
-		double weight = Math.ceil(minimumWeightToAssign / stepSize) * stepSize;
-		// Cannot be smaller but maybe rounding problems (?)
-		if (weight <= minimumWeightToAssign) {
-			weight += stepSize;
+	/**
+	 * @return the max started ticks followed by the last assigned ticks of each priority
+	 */
+	@Override
+	public long[] getState() {
+		VirtualTime current = getVirtualTime();
+		AtomicLongArray prio2ticks = current.prio2ticks.get();
+		long[] state = new long[prio2ticks.length() + 1];
+		state[0] = current.maxStartedTicks.get();
+		for (int priority = 0; priority < prio2ticks.length(); priority++) {
+			state[priority + 1] = prio2ticks.get(priority);
+		}
+		return state;
+	}
+
+	@Override
+	public synchronized void setState(long[] state) {
+		if (state == null || state.length == 0) {
+			return;
 		}
-		// Protect us from values going through the roof if we run for a very
-		// long time
-		// This below might leave some jobs in the queue with very large weight
-		// this probably improbable to happen so let's do it like this for now
-		// ...
-		if (Double.POSITIVE_INFINITY == weight) {
-			maxStartedWeight = 1F;
-			prio2weight.clear();
-			return getWeightToUse(priority, minimumWeightToAssign);
+		VirtualTime restored = new VirtualTime(getNumberOfPriorities(), state[0]);
+		for (int priority = 0; priority < state.length - 1; priority++) {
+			restored.getTicks(priority).set(priority, state[priority + 1]);
 		}
-		return (float) weight;
+		virtualTime = restored;
 	}
 
-	abstract float getStepSize(int priority);
+	/**
+	 * @return the step size in ticks for the priority
+	 */
+	abstract long getStepSize(int priority);
 }
@@ -42,13 +42,13 @@ public class FQStrategy extends FQBaseStrategy {
 	}
 
 	@Override
-	float getStepSize(int priority) {
+	long getStepSize(int priority) {
 		// If FQ each priority is equally important
 		// so we basically assign priorities in
 		// with round-robin
 		//
 		// The step-size for the priority is same for all priorities
-		float stepSize = MIN_STEP_SIZE;
+		long stepSize = MIN_STEP_SIZE;
 		return stepSize;
 	}
 
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Magnus Sandberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.advancedqueue.sorter.strategy;
+
+import static jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback.selectWeight;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Queue.LeftItem;
+import hudson.queueSorter.PrioritySorterUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import jenkins.advancedqueue.BuildDurationStatistics;
+import jenkins.advancedqueue.sorter.ItemInfo;
+import jenkins.advancedqueue.sorter.QueueItemCache;
+import jenkins.advancedqueue.sorter.SorterStrategyCallback;
+import jenkins.advancedqueue.strategy.Messages;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Shortest Expected Job First. Items are ordered by priority, as with the {@link AbsoluteStrategy},
+ * and within a priority by a virtual finish time: the virtual clock of the priority when the item
+ * entered the queue plus the expected cost of the item. The clock of a priority moves to the finish
+ * time of each started item, so short jobs go first but a long job is eventually passed by the clock
+ * and cannot starve.
+ * <p>
+ * The cost is the duration threshold divided by the boost of
+ * {@link PrioritySorterUtils#getPriorityBoostForBuildDuration(double, double, double)} for the
+ * expected duration from the {@link BuildDurationStatistics}, that is between a quarter of and four
+ * times the threshold.
+ * 
+ * @author Magnus Sandberg
+ * @since 2.7
+ */
+public class SEJFStrategy extends MultiBucketStrategy {
+
+	private final static Logger LOGGER = Logger.getLogger(SEJFStrategy.class.getName());
+
+	public static final int DEFAULT_DURATION_THRESHOLD = 10;
+
+	// Builds needed before the duration of a Job is trusted
+	static final int MIN_BUILDS = 3;
+
+	// The weight range of a priority, a priority p has weights in [p * BUCKET_SPAN, (p + 1) * BUCKET_SPAN)
+	static final double BUCKET_SPAN = 1E9;
+
+	// Keeps the virtual time well within the bucket
+	static final double RENORMALIZE_THRESHOLD = BUCKET_SPAN / 2;
+
+	// Threshold, in minutes, above which a build is considered slow
+	private int durationThreshold = DEFAULT_DURATION_THRESHOLD;
+
+	// The virtual clock of each priority in seconds, created on first use since the strategy is also
+	// created by XStream
+	transient private double[] prio2clock;
+
+	public SEJFStrategy() {
+	}
+
+	@DataBoundConstructor
+	public SEJFStrategy(int numberOfPriorities, int defaultPriority, int durationThreshold) {
+		super(numberOfPriorities, defaultPriority);
+		this.durationThreshold = durationThreshold > 0 ? durationThreshold : DEFAULT_DURATION_THRESHOLD;
+	}
+
+	public int getDurationThreshold() {
+		return durationThreshold;
+	}
+
+	private double[] getClocks(int priority) {
+		if (prio2clock == null) {
+			prio2clock = new double[getNumberOfPriorities() + 1];
+		}
+		if (priority >= prio2clock.length) {
+			double[] grown = new double[priority + 1];
+			System.arraycopy(prio2clock, 0, grown, 0, prio2clock.length);
+			prio2clock = grown;
+		}
+		return prio2clock;
+	}
+
+	@Override
+	public SorterStrategyCallback onNewItem(Queue.Item item, SorterStrategyCallback weightCallback) {
+		return onNewItem(weightCallback, getExpectedDuration(item));
+	}
+
+	synchronized SorterStrategyCallback onNewItem(SorterStrategyCallback weightCallback, double expectedDuration) {
+		int priority = Math.max(0, weightCallback.getPriority());
+		double[] clocks = getClocks(priority);
+		if (clocks[priority] > RENORMALIZE_THRESHOLD) {
+			renormalize(priority);
+		}
+		return selectWeight(weightCallback, getWeight(priority, expectedDuration));
+	}
+
+	@Override
+	public double getWeightForPriority(Queue.Item item, int priority) {
+		return getWeightForPriority(Math.max(0, priority), getExpectedDuration(item));
+	}
+
+	synchronized double getWeightForPriority(int priority, double expectedDuration) {
+		getClocks(priority);
+		return getWeight(priority, expectedDuration);
+	}
+
+	private double getWeight(int priority, double expectedDuration) {
+		double finishTime = prio2clock[priority] + getCost(expectedDuration);
+		return priority * BUCKET_SPAN + finishTime;
+	}
+
+	/**
+	 * @return the expected duration in milliseconds or -1 if not known
+	 */
+	private double getExpectedDuration(Queue.Item item) {
+		if (item != null && item.task instanceof Job) {
+			BuildDurationStatistics.Stats stats = BuildDurationStatistics.get().getStats((Job<?, ?>) item.task);
+			if (stats != null && stats.getCount() >= MIN_BUILDS) {
+				return stats.getEwma();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param expectedDuration the expected duration in milliseconds or -1 if not known
+	 * @return the cost in seconds
+	 */
+	double getCost(double expectedDuration) {
+		double threshold = TimeUnit.MINUTES.toMillis(durationThreshold);
+		double boost = PrioritySorterUtils.getPriorityBoostForBuildDuration(expectedDuration, 0, threshold);
+		return threshold / boost / TimeUnit.SECONDS.toMillis(1);
+	}
+
+	@Override
+	public synchronized void onStartedItem(LeftItem item, double weight) {
+		int priority = (int) Math.floor(weight / BUCKET_SPAN);
+		if (priority < 0) {
+			return;
+		}
+		double finishTime = weight - priority * BUCKET_SPAN;
+		double[] clocks = getClocks(priority);
+		if (finishTime > clocks[priority]) {
+			clocks[priority] = finishTime;
+		}
+	}
+
+	/**
+	 * Moves the clock of the priority, and the weights of its queued items, back to 0.
+	 */
+	private void renormalize(int priority) {
+		double offset = prio2clock[priority];
+		double from = priority * BUCKET_SPAN;
+		double to = from + BUCKET_SPAN;
+		QueueItemCache queueItemCache = QueueItemCache.get();
+		for (ItemInfo itemInfo : queueItemCache.getSortedItems(null)) {
+			double weight = itemInfo.getExactWeight();
+			if (weight >= from && weight < to) {
+				// Items already passed by the clock are due anyway and stay first in the bucket
+				queueItemCache.updateWeight(itemInfo, from + Math.max(0D, weight - from - offset));
+			}
+		}
+		prio2clock[priority] = 0D;
+		LOGGER.info("Renormalized the virtual time of priority " + priority + " by " + offset + " seconds");
+	}
+
+	/**
+	 * @return the clock of each priority as double bits
+	 */
+	@Override
+	public synchronized long[] getState() {
+		double[] clocks = getClocks(0);
+		long[] state = new long[clocks.length];
+		for (int priority = 0; priority < clocks.length; priority++) {
+			state[priority] = Double.doubleToLongBits(clocks[priority]);
+		}
+		return state;
+	}
+
+	@Override
+	public synchronized void setState(long[] state) {
+		if (state == null) {
+			return;
+		}
+		double[] clocks = new double[Math.max(state.length, getNumberOfPriorities() + 1)];
+		for (int priority = 0; priority < state.length; priority++) {
+			clocks[priority] = Double.longBitsToDouble(state[priority]);
+		}
+		prio2clock = clocks;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends MultiBucketStrategyDescriptor {
+
+		@Override
+		public String getDisplayName() {
+			return Messages.SorterStrategy_SEJF_displayName();
+		}
+
+		@Override
+		public String getShortName() {
+			return Messages.SorterStrategy_SEJF_shortName();
+		}
+	}
+}
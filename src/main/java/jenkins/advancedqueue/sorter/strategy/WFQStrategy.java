@@ -42,12 +42,12 @@ public class WFQStrategy extends FQBaseStrategy {
 	}
 
 	@Override
-	float getStepSize(int priority) {
+	long getStepSize(int priority) {
 		// If WFQ a lower priority is more important than a higher priority
 		// so we must step higher priorities faster than lower ones
 		//
 		// The step-size for the priority is dependent on its priority
-		float stepSize = MIN_STEP_SIZE * (float) priority;
+		long stepSize = MIN_STEP_SIZE * priority;
 		return stepSize;
 	}
 
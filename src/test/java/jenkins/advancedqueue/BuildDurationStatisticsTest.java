@@ -0,0 +1,133 @@
+package jenkins.advancedqueue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import jenkins.advancedqueue.BuildDurationStatistics.Stats;
+import jenkins.advancedqueue.BuildDurationStatistics.WarmUp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BuildDurationStatisticsTest {
+
+	private static Stats add(long... durations) {
+		Stats stats = new Stats(0, 0D, 0D, 0D);
+		for (long duration : durations) {
+			stats = stats.add(duration);
+		}
+		return stats;
+	}
+
+	@Test
+	public void testFirstBuild() {
+		Stats stats = add(1000);
+		Assert.assertEquals(1, stats.getCount());
+		Assert.assertEquals(1000D, stats.getEwma(), 0D);
+		Assert.assertEquals(1000D, stats.getMean(), 0D);
+		Assert.assertEquals(0D, stats.getVariance(), 0D);
+	}
+
+	@Test
+	public void testMeanAndVariance() {
+		Stats stats = add(2, 4, 4, 4, 5, 5, 7, 9);
+		Assert.assertEquals(8, stats.getCount());
+		Assert.assertEquals(5D, stats.getMean(), 1E-9);
+		// Sample variance
+		Assert.assertEquals(32D / 7D, stats.getVariance(), 1E-9);
+		Assert.assertEquals(Math.sqrt(32D / 7D), stats.getStandardDeviation(), 1E-9);
+	}
+
+	@Test
+	public void testMovingAverageFollowsRecentBuilds() {
+		Stats stats = add(1000, 1000, 1000);
+		for (int i = 0; i < 30; i++) {
+			stats = stats.add(100000);
+		}
+		Assert.assertTrue(stats.getEwma() > 99000D);
+		Assert.assertTrue(stats.getMean() < stats.getEwma());
+	}
+
+	@Test
+	public void testBuildsCompletedDuringWarmUpAreMerged() {
+		BuildDurationStatistics statistics = new BuildDurationStatistics();
+		WarmUp warmUp = statistics.startWarmUp("job");
+		Assert.assertNull(statistics.startWarmUp("job"));
+		// Build 20 completed before the history was read, build 21 after
+		statistics.record("job", 20, 1000);
+		statistics.record("job", 21, 4000);
+		Assert.assertNull(statistics.getStats("job"));
+		Set<Integer> historyBuilds = new HashSet<Integer>();
+		long[] durations = new long[20];
+		for (int i = 0; i < 20; i++) {
+			historyBuilds.add(i + 1);
+			durations[i] = 1000;
+		}
+		statistics.completeWarmUp("job", warmUp, add(durations), historyBuilds);
+		Stats stats = statistics.getStats("job");
+		Assert.assertEquals(21, stats.getCount());
+		Assert.assertEquals(24000D / 21D, stats.getMean(), 1E-9);
+		// Recorded directly once the warm up is done
+		statistics.record("job", 22, 1000);
+		Assert.assertEquals(22, statistics.getStats("job").getCount());
+		Assert.assertNotNull(statistics.startWarmUp("job"));
+	}
+
+	@Test
+	public void testWarmUpKeepsKnownStatistics() {
+		BuildDurationStatistics statistics = new BuildDurationStatistics();
+		statistics.record("job", 1, 1000);
+		WarmUp warmUp = statistics.startWarmUp("job");
+		statistics.record("job", 2, 3000);
+		statistics.completeWarmUp("job", warmUp, add(5000), new HashSet<Integer>());
+		Stats stats = statistics.getStats("job");
+		Assert.assertEquals(2, stats.getCount());
+		Assert.assertEquals(2000D, stats.getMean(), 1E-9);
+	}
+
+	@Test
+	public void testFailedWarmUpKeepsCompletedBuilds() {
+		BuildDurationStatistics statistics = new BuildDurationStatistics();
+		WarmUp warmUp = statistics.startWarmUp("job");
+		statistics.record("job", 7, 3000);
+		statistics.completeWarmUp("job", warmUp, null, new HashSet<Integer>());
+		Assert.assertEquals(1, statistics.getStats("job").getCount());
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		Map<String, Stats> jobName2stats = new HashMap<String, Stats>();
+		jobName2stats.put("job", add(1000, 3000));
+		jobName2stats.put("folder/job", add(5));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BuildDurationStatistics.write(jobName2stats, out);
+		out.close();
+		Map<String, Stats> read = BuildDurationStatistics.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Assert.assertEquals(2, read.size());
+		Stats stats = read.get("job");
+		Assert.assertEquals(2, stats.getCount());
+		Assert.assertEquals(jobName2stats.get("job").getEwma(), stats.getEwma(), 0D);
+		Assert.assertEquals(2000D, stats.getMean(), 0D);
+		Assert.assertEquals(jobName2stats.get("job").getVariance(), stats.getVariance(), 0D);
+		Assert.assertEquals(1, read.get("folder/job").getCount());
+	}
+
+	@Test
+	public void testReadUnknownFormat() {
+		try {
+			BuildDurationStatistics.read(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 0, 0, 0, 0 })));
+			Assert.fail("An unknown format must not be read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package jenkins.advancedqueue;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobGroupCacheTest {
+
+	@After
+	public void tearDown() {
+		JobGroupCache.get().invalidate();
+	}
+
+	@Test
+	public void testPutAndInvalidate() {
+		JobGroupCache cache = JobGroupCache.get();
+		cache.put("folder/job", 3, cache.getGeneration());
+		cache.put("other", JobGroupCache.NO_JOB_GROUP, cache.getGeneration());
+		Assert.assertEquals(Integer.valueOf(3), cache.getJobGroupId("folder/job"));
+		Assert.assertEquals(Integer.valueOf(JobGroupCache.NO_JOB_GROUP), cache.getJobGroupId("other"));
+		Assert.assertNull(cache.getJobGroupId("job"));
+		cache.invalidate();
+		Assert.assertNull(cache.getJobGroupId("folder/job"));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testResolutionRacingInvalidationIsNotCached() {
+		JobGroupCache cache = JobGroupCache.get();
+		long generation = cache.getGeneration();
+		cache.invalidate();
+		cache.put("job", 1, generation);
+		Assert.assertNull(cache.getJobGroupId("job"));
+	}
+
+}
@@ -0,0 +1,92 @@
+package jenkins.advancedqueue;
+
+import hudson.model.Descriptor.FormException;
+import hudson.util.XStream2;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobGroupTest {
+
+	@Test
+	public void testParseAgingCurve() {
+		Assert.assertArrayEquals(new long[] { TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(30),
+				TimeUnit.MINUTES.toMillis(60) }, JobGroup.parseAgingCurve(" 15, 30,60 "));
+		Assert.assertEquals(0, JobGroup.parseAgingCurve("").length);
+		Assert.assertEquals(0, JobGroup.parseAgingCurve(null).length);
+		Assert.assertEquals(0, JobGroup.parseAgingCurve("15, x").length);
+		Assert.assertEquals(0, JobGroup.parseAgingCurve("30, 15").length);
+		Assert.assertEquals(0, JobGroup.parseAgingCurve("0").length);
+	}
+
+	private static final String JOB_GROUP_XML = "<jenkins.advancedqueue.JobGroup><id>1</id>"
+			+ "<useJobFilter>true</useJobFilter><jobPattern>%s</jobPattern></jenkins.advancedqueue.JobGroup>";
+
+	@Test
+	public void testCompiledJobPatternOnLoad() {
+		XStream2 xstream = new XStream2();
+		JobGroup jobGroup = (JobGroup) xstream.fromXML(String.format(JOB_GROUP_XML, "release-.*"));
+		Assert.assertNotNull(jobGroup.getCompiledJobPattern());
+		Assert.assertTrue(jobGroup.getCompiledJobPattern().matcher("release-1").matches());
+		// The compiled pattern is not saved but compiled again when loaded
+		Assert.assertFalse(xstream.toXML(jobGroup).contains("compiledJobPattern"));
+		JobGroup reloaded = (JobGroup) xstream.fromXML(xstream.toXML(jobGroup));
+		Assert.assertEquals("release-.*", reloaded.getJobPattern());
+		Assert.assertTrue(reloaded.getCompiledJobPattern().matcher("release-1").matches());
+	}
+
+	@Test
+	public void testInvalidJobPattern() {
+		XStream2 xstream = new XStream2();
+		JobGroup jobGroup = (JobGroup) xstream.fromXML(String.format(JOB_GROUP_XML, "release-("));
+		Assert.assertNull(jobGroup.getCompiledJobPattern());
+		Assert.assertEquals("release-(", jobGroup.getJobPattern());
+		jobGroup.setJobPattern("release-.*");
+		Assert.assertNotNull(jobGroup.getCompiledJobPattern());
+		jobGroup.setJobPattern("[");
+		Assert.assertNull(jobGroup.getCompiledJobPattern());
+		// Still invalid after a reload
+		JobGroup reloaded = (JobGroup) xstream.fromXML(xstream.toXML(jobGroup));
+		Assert.assertEquals("[", reloaded.getJobPattern());
+		Assert.assertNull(reloaded.getCompiledJobPattern());
+	}
+
+	private static JSONObject createJobGroupObject(String agingCurve) {
+		return new JSONObject().element("priority", 2).element("view", "All").element("runExclusive", "false")
+				.element("useAging", new JSONObject().element("agingCurve", agingCurve));
+	}
+
+	@Test
+	public void testAgingCurveFromForm() throws FormException {
+		JobGroup jobGroup = JobGroup.newInstance(null, createJobGroupObject("15, 30"), 0);
+		Assert.assertTrue(jobGroup.isUseAging());
+		Assert.assertArrayEquals(new long[] { TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(30) },
+				jobGroup.getAgingThresholds());
+	}
+
+	@Test
+	public void testInvalidAgingCurveIsRejected() {
+		for (String agingCurve : new String[] { "30, 15", "x", "" }) {
+			try {
+				JobGroup.newInstance(null, createJobGroupObject(agingCurve), 0);
+				Assert.fail("The aging curve \"" + agingCurve + "\" must be rejected");
+			} catch (FormException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidAgingCurveKeepsUseAgingOnLoad() {
+		JobGroup jobGroup = (JobGroup) new XStream2().fromXML("<jenkins.advancedqueue.JobGroup><id>1</id>"
+				+ "<useAging>true</useAging><agingCurve>30, 15</agingCurve></jenkins.advancedqueue.JobGroup>");
+		Assert.assertTrue(jobGroup.isUseAging());
+		Assert.assertEquals("30, 15", jobGroup.getAgingCurve());
+		Assert.assertEquals(0, jobGroup.getAgingThresholds().length);
+	}
+
+}
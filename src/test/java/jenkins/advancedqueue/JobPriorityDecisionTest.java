@@ -0,0 +1,163 @@
+package jenkins.advancedqueue;
+
+import hudson.model.Descriptor;
+import hudson.model.Queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobPriorityDecisionTest {
+
+	private static class TestStrategy extends PriorityStrategy {
+
+		private final int priority;
+
+		private int evaluations = 0;
+
+		TestStrategy(int priority) {
+			this.priority = priority;
+		}
+
+		@Override
+		public boolean isApplicable(Queue.Item item) {
+			return priority != NOT_APPLICABLE;
+		}
+
+		@Override
+		public int getPriority(Queue.Item item) {
+			return priority;
+		}
+
+		@Override
+		public int evaluate(Queue.Item item) {
+			evaluations++;
+			return super.evaluate(item);
+		}
+
+		@Override
+		public void numberPrioritiesUpdates(int oldNumberOfPriorities, int newNumberOfPriorities) {
+		}
+
+		public Descriptor<PriorityStrategy> getDescriptor() {
+			return null;
+		}
+
+	}
+
+	private static class Callback implements PriorityConfigurationCallback, DecisionLogCode.Recorder {
+
+		private int priority;
+
+		private int jobGroupId;
+
+		private PriorityStrategy reason;
+
+		private List<DecisionLogCode> log = new ArrayList<DecisionLogCode>();
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority) {
+			return setPrioritySelection(priority, -1, null);
+		}
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority, int jobGroupId, PriorityStrategy reason) {
+			this.priority = priority;
+			this.jobGroupId = jobGroupId;
+			this.reason = reason;
+			return this;
+		}
+
+		public PriorityConfigurationCallback addDecisionLog(int indent, String log) {
+			return this;
+		}
+
+		public PriorityConfigurationCallback addDecisionLog(DecisionLogCode code, Object argument) {
+			log.add(code);
+			return this;
+		}
+
+	}
+
+	@Test
+	public void testDecisionIsReused() {
+		JobPriorityDecisionCache cache = new JobPriorityDecisionCache(JobGroupCache.get(), 10);
+		JobPriorityDecision decision = new JobPriorityDecision(JobGroupCache.get().getGeneration(), 2);
+		cache.put("folder/job", decision);
+		Assert.assertSame(decision, cache.get("folder/job"));
+		Assert.assertSame(decision, cache.get("folder/job"));
+		Assert.assertNull(cache.get("other"));
+		cache.remove("folder/job");
+		Assert.assertNull(cache.get("folder/job"));
+	}
+
+	@Test
+	public void testNewGenerationInvalidatesDecisions() {
+		JobPriorityDecisionCache cache = new JobPriorityDecisionCache(JobGroupCache.get(), 10);
+		cache.put("a", new JobPriorityDecision(JobGroupCache.get().getGeneration(), 2));
+		cache.put("b", new JobPriorityDecision(JobGroupCache.get().getGeneration(), 3));
+		JobGroupCache.get().invalidate();
+		Assert.assertNull(cache.get("a"));
+		// The decisions of the old generation are dropped with the first new decision
+		cache.put("c", new JobPriorityDecision(JobGroupCache.get().getGeneration(), 4));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void testDecisionRacingAnInvalidationIsNotKept() {
+		JobPriorityDecisionCache cache = new JobPriorityDecisionCache(JobGroupCache.get(), 10);
+		// Generation read before the decision was made, then the configuration changed
+		long generation = JobGroupCache.get().getGeneration();
+		JobGroupCache.get().invalidate();
+		cache.put("a", new JobPriorityDecision(generation, 2));
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		JobPriorityDecisionCache cache = new JobPriorityDecisionCache(JobGroupCache.get(), 2);
+		long generation = JobGroupCache.get().getGeneration();
+		cache.put("a", new JobPriorityDecision(generation, 1));
+		cache.put("b", new JobPriorityDecision(generation, 2));
+		cache.put("c", new JobPriorityDecision(generation, 3));
+		Assert.assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testItemDependentStrategiesAreEvaluatedOnApply() {
+		TestStrategy notApplicable = new TestStrategy(PriorityStrategy.NOT_APPLICABLE);
+		TestStrategy applicable = new TestStrategy(1);
+		TestStrategy reason = new TestStrategy(3);
+		JobPriorityDecision decision = new JobPriorityDecision(0, 3, 7, reason, Arrays.<PriorityStrategy> asList(
+				notApplicable, applicable));
+		Callback callback = new Callback();
+		decision.apply(callback, null, 5);
+		Assert.assertEquals(1, callback.priority);
+		Assert.assertEquals(7, callback.jobGroupId);
+		Assert.assertSame(applicable, callback.reason);
+		decision.apply(callback, null, 5);
+		Assert.assertEquals(2, notApplicable.evaluations);
+		Assert.assertEquals(2, applicable.evaluations);
+		Assert.assertEquals(0, reason.evaluations);
+		Assert.assertTrue(callback.log.contains(DecisionLogCode.STRATEGY_APPLICABLE));
+	}
+
+	@Test
+	public void testRememberedOutcomeWhenNoItemDependentStrategyApplies() {
+		TestStrategy outOfRange = new TestStrategy(9);
+		TestStrategy reason = new TestStrategy(3);
+		JobPriorityDecision decision = new JobPriorityDecision(0, 3, 7, reason,
+				Arrays.<PriorityStrategy> asList(outOfRange));
+		Callback callback = new Callback();
+		decision.apply(callback, null, 5);
+		Assert.assertEquals(3, callback.priority);
+		Assert.assertSame(reason, callback.reason);
+		Assert.assertEquals(1, outOfRange.evaluations);
+	}
+
+}
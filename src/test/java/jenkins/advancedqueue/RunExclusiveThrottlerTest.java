@@ -0,0 +1,58 @@
+package jenkins.advancedqueue;
+
+import hudson.model.queue.CauseOfBlockage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RunExclusiveThrottlerTest {
+
+	@After
+	public void tearDown() {
+		RunExclusiveThrottler.onCompleted("a#1");
+		RunExclusiveThrottler.onCompleted("a#2");
+		RunExclusiveThrottler.onCompleted("b#1");
+	}
+
+	@Test
+	public void testNothingRunning() {
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(-1));
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(1));
+	}
+
+	@Test
+	public void testOverlappingBuildsInSameGroup() {
+		RunExclusiveThrottler.onStarted("a#1", 1, "a");
+		RunExclusiveThrottler.onStarted("a#2", 1, "a");
+		CauseOfBlockage cause = RunExclusiveThrottler.getCauseOfBlockage(2);
+		Assert.assertNotNull(cause);
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(1));
+		RunExclusiveThrottler.onCompleted("a#1");
+		Assert.assertSame(cause, RunExclusiveThrottler.getCauseOfBlockage(-1));
+		RunExclusiveThrottler.onCompleted("a#2");
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(-1));
+	}
+
+	@Test
+	public void testSeveralExclusiveGroups() {
+		RunExclusiveThrottler.onStarted("a#1", 1, "a");
+		RunExclusiveThrottler.onStarted("b#1", 2, "b");
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(1));
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(2));
+		Assert.assertNotNull(RunExclusiveThrottler.getCauseOfBlockage(3));
+		RunExclusiveThrottler.onCompleted("b#1");
+		Assert.assertNotNull(RunExclusiveThrottler.getCauseOfBlockage(2));
+		Assert.assertEquals("Run Exclusive (a)", RunExclusiveThrottler.getCauseOfBlockage(2).getShortDescription());
+	}
+
+	@Test
+	public void testStartedAndCompletedTwice() {
+		RunExclusiveThrottler.onStarted("a#1", 1, "a");
+		RunExclusiveThrottler.onStarted("a#1", 1, "a");
+		RunExclusiveThrottler.onCompleted("a#1");
+		RunExclusiveThrottler.onCompleted("a#1");
+		Assert.assertNull(RunExclusiveThrottler.getCauseOfBlockage(2));
+	}
+
+}
@@ -0,0 +1,85 @@
+package jenkins.advancedqueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SecondChanceCacheTest {
+
+	@Test
+	public void testEvictsOldestUnreadEntry() {
+		SecondChanceCache<String> cache = new SecondChanceCache<String>(3);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.put("c", "3");
+		// a gets a second chance since it has been read
+		Assert.assertEquals("1", cache.get("a"));
+		cache.put("d", "4");
+		Assert.assertEquals(3, cache.size());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals("4", cache.get("d"));
+	}
+
+	@Test
+	public void testRenameMovesEntry() {
+		SecondChanceCache<String> cache = new SecondChanceCache<String>(2);
+		cache.put("folder/a", "1");
+		cache.put("other", "2");
+		cache.rename("folder/a", "folder/b");
+		cache.rename("missing", "folder/c");
+		Assert.assertNull(cache.get("folder/a"));
+		Assert.assertEquals("1", cache.get("folder/b"));
+		Assert.assertNull(cache.get("folder/c"));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+		// The renamed entry is the newest, other is evicted first
+		cache.put("last", "3");
+		Assert.assertNull(cache.get("other"));
+		Assert.assertEquals("1", cache.get("folder/b"));
+	}
+
+	@Test
+	public void testRemove() {
+		SecondChanceCache<String> cache = new SecondChanceCache<String>(1);
+		cache.put("a", "1");
+		cache.remove("a");
+		cache.put("b", "2");
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void testEvictAfterRemove() {
+		SecondChanceCache<String> cache = new SecondChanceCache<String>(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.remove("a");
+		cache.put("a", "3");
+		cache.put("c", "4");
+		// The removed a is skipped, b is the oldest entry
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals("3", cache.get("a"));
+		Assert.assertEquals("4", cache.get("c"));
+	}
+
+	@Test
+	public void testRemovedEntriesArePurged() {
+		SecondChanceCache<String> cache = new SecondChanceCache<String>(2);
+		for (int i = 0; i < 100; i++) {
+			cache.put("a", String.valueOf(i));
+			cache.remove("a");
+		}
+		Assert.assertEquals(0, cache.size());
+		Assert.assertTrue(cache.getInsertionOrderSize() <= 3);
+	}
+
+	@Test
+	public void testOldFullName() {
+		Assert.assertEquals("old", FullNameItemListener.getOldFullName("", "old"));
+		Assert.assertEquals("folder/sub/old", FullNameItemListener.getOldFullName("folder/sub", "old"));
+	}
+
+}
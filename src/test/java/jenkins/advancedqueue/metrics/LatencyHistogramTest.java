@@ -0,0 +1,43 @@
+package jenkins.advancedqueue.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentile(99));
+		Assert.assertEquals(0D, histogram.getMean(), 0D);
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(5000);
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(5000, histogram.getMax());
+		Assert.assertEquals(149D, histogram.getMean(), 0D);
+		// 100 is in the bucket [64, 128)
+		Assert.assertEquals(127, histogram.getPercentile(50));
+		Assert.assertEquals(127, histogram.getPercentile(99));
+		// Never above the max
+		Assert.assertEquals(5000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testExtremes() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		Assert.assertEquals(1, histogram.getBuckets()[0]);
+		Assert.assertEquals(1, histogram.getBuckets()[63]);
+		Assert.assertEquals(0, histogram.getPercentile(50));
+	}
+
+}
@@ -0,0 +1,56 @@
+package jenkins.advancedqueue.priority;
+
+import hudson.model.Descriptor;
+import hudson.model.Queue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriorityStrategyTest {
+
+	private static class TestStrategy extends PriorityStrategy {
+
+		private final boolean applicable;
+
+		private int getPriorityCalls = 0;
+
+		TestStrategy(boolean applicable) {
+			this.applicable = applicable;
+		}
+
+		@Override
+		public boolean isApplicable(Queue.Item item) {
+			return applicable;
+		}
+
+		@Override
+		public int getPriority(Queue.Item item) {
+			getPriorityCalls++;
+			return 3;
+		}
+
+		@Override
+		public void numberPrioritiesUpdates(int oldNumberOfPriorities, int newNumberOfPriorities) {
+		}
+
+		public Descriptor<PriorityStrategy> getDescriptor() {
+			return null;
+		}
+
+	}
+
+	@Test
+	public void testEvaluateApplicable() {
+		TestStrategy strategy = new TestStrategy(true);
+		Assert.assertEquals(3, strategy.evaluate(null));
+		Assert.assertEquals(1, strategy.getPriorityCalls);
+	}
+
+	@Test
+	public void testEvaluateNotApplicable() {
+		TestStrategy strategy = new TestStrategy(false);
+		Assert.assertEquals(PriorityStrategy.NOT_APPLICABLE, strategy.evaluate(null));
+		Assert.assertEquals(0, strategy.getPriorityCalls);
+	}
+
+}
@@ -0,0 +1,51 @@
+package jenkins.advancedqueue.priority.strategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HealthScoreCacheTest {
+
+	@Test
+	public void testPutAndRemove() {
+		HealthScoreCache cache = new HealthScoreCache(10);
+		Assert.assertNull(cache.getCachedScore("folder/job"));
+		cache.put("folder/job", 80);
+		cache.put("other", HealthScoreCache.NO_HEALTH);
+		Assert.assertEquals(Integer.valueOf(80), cache.getCachedScore("folder/job"));
+		Assert.assertEquals(Integer.valueOf(HealthScoreCache.NO_HEALTH), cache.getCachedScore("other"));
+		cache.put("folder/job", 40);
+		Assert.assertEquals(Integer.valueOf(40), cache.getCachedScore("folder/job"));
+		Assert.assertEquals(2, cache.size());
+		cache.remove("folder/job");
+		Assert.assertNull(cache.getCachedScore("folder/job"));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testBoundedWithSecondChance() {
+		HealthScoreCache cache = new HealthScoreCache(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		// Read entries survive the next eviction
+		cache.getCachedScore("a");
+		cache.put("d", 4);
+		Assert.assertEquals(3, cache.size());
+		Assert.assertEquals(Integer.valueOf(1), cache.getCachedScore("a"));
+		Assert.assertNull(cache.getCachedScore("b"));
+		Assert.assertEquals(Integer.valueOf(4), cache.getCachedScore("d"));
+	}
+
+	@Test
+	public void testIsCachedGivesNoSecondChance() {
+		HealthScoreCache cache = new HealthScoreCache(2);
+		Assert.assertFalse(cache.isCached("a"));
+		cache.put("a", 1);
+		cache.put("b", 2);
+		Assert.assertTrue(cache.isCached("a"));
+		cache.put("c", 3);
+		Assert.assertFalse(cache.isCached("a"));
+		Assert.assertTrue(cache.isCached("b"));
+	}
+
+}
@@ -0,0 +1,71 @@
+package jenkins.advancedqueue.sorter;
+
+import java.util.List;
+
+import jenkins.advancedqueue.sorter.AgingWheel.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AgingWheelTest {
+
+	private static final long MINUTE = AgingWheel.TICK_MILLIS;
+
+	private static final long START = 1000 * MINUTE;
+
+	private static Entry createEntry(int itemId, long inQueueSince, long... thresholds) {
+		return new Entry(new ItemInfo(itemId, inQueueSince, "job" + itemId), thresholds);
+	}
+
+	@Test
+	public void testOnlyDueEntriesAreReturned() {
+		AgingWheel wheel = new AgingWheel(START);
+		Entry soon = createEntry(1, START, 5 * MINUTE);
+		Entry later = createEntry(2, START, 30 * MINUTE);
+		wheel.schedule(soon);
+		wheel.schedule(later);
+		Assert.assertTrue(wheel.advance(START + 4 * MINUTE).isEmpty());
+		List<Entry> due = wheel.advance(START + 5 * MINUTE);
+		Assert.assertEquals(1, due.size());
+		Assert.assertSame(soon, due.get(0));
+		Assert.assertEquals(1, wheel.size());
+		Assert.assertSame(later, wheel.advance(START + 30 * MINUTE).get(0));
+		Assert.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testEntriesBeyondOneRevolution() {
+		AgingWheel wheel = new AgingWheel(START);
+		Entry entry = createEntry(1, START, (AgingWheel.SLOTS + 3) * MINUTE);
+		wheel.schedule(entry);
+		// Passes the slot of the entry once before it is due
+		Assert.assertTrue(wheel.advance(START + AgingWheel.SLOTS * MINUTE).isEmpty());
+		Assert.assertTrue(wheel.advance(START + (AgingWheel.SLOTS + 2) * MINUTE).isEmpty());
+		Assert.assertSame(entry, wheel.advance(START + (AgingWheel.SLOTS + 3) * MINUTE).get(0));
+	}
+
+	@Test
+	public void testLateAdvanceAndOverdueEntries() {
+		AgingWheel wheel = new AgingWheel(START);
+		// Entered the queue long before it was scheduled
+		Entry overdue = createEntry(1, START - 60 * MINUTE, 10 * MINUTE);
+		Entry entry = createEntry(2, START, 2 * MINUTE);
+		wheel.schedule(overdue);
+		wheel.schedule(entry);
+		// Not called for longer than a revolution
+		Assert.assertEquals(2, wheel.advance(START + 10 * AgingWheel.SLOTS * MINUTE).size());
+	}
+
+	@Test
+	public void testReschedule() {
+		AgingWheel wheel = new AgingWheel(START);
+		Entry entry = createEntry(1, START, 5 * MINUTE, 15 * MINUTE);
+		wheel.schedule(entry);
+		Assert.assertEquals(1, wheel.advance(START + 5 * MINUTE).size());
+		entry.step++;
+		wheel.schedule(entry);
+		Assert.assertTrue(wheel.advance(START + 14 * MINUTE).isEmpty());
+		Assert.assertEquals(1, wheel.advance(START + 15 * MINUTE).size());
+	}
+
+}
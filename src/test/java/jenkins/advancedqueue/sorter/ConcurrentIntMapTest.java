@@ -0,0 +1,42 @@
+package jenkins.advancedqueue.sorter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentIntMapTest {
+
+	@Test
+	public void testPutGetRemove() {
+		ConcurrentIntMap<String> map = new ConcurrentIntMap<String>();
+		Assert.assertNull(map.put(1, "a"));
+		Assert.assertNull(map.put(17, "b"));
+		Assert.assertEquals("a", map.put(1, "c"));
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("c", map.get(1));
+		Assert.assertEquals("b", map.get(17));
+		Assert.assertNull(map.get(2));
+		Assert.assertEquals("c", map.remove(1));
+		Assert.assertNull(map.remove(1));
+		Assert.assertNull(map.get(1));
+		Assert.assertEquals("b", map.get(17));
+		Assert.assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testGrowAndChurn() {
+		ConcurrentIntMap<Integer> map = new ConcurrentIntMap<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			map.put(i, i);
+			if (i >= 100) {
+				Assert.assertEquals(Integer.valueOf(i - 100), map.remove(i - 100));
+			}
+		}
+		Assert.assertEquals(100, map.size());
+		for (int i = 9900; i < 10000; i++) {
+			Assert.assertEquals(Integer.valueOf(i), map.get(i));
+		}
+		Assert.assertNull(map.get(0));
+		Assert.assertNull(map.get(-1));
+	}
+
+}
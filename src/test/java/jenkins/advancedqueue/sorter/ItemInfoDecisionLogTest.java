@@ -0,0 +1,96 @@
+package jenkins.advancedqueue.sorter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.advancedqueue.DecisionLogCode;
+import jenkins.advancedqueue.PriorityConfigurationCallback;
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ItemInfoDecisionLogTest {
+
+	private static final Logger LOGGER = Logger.getLogger("PrioritySorter.Queue.Items");
+
+	private Level level;
+
+	@Before
+	public void setUp() {
+		level = LOGGER.getLevel();
+		LOGGER.setLevel(Level.FINER);
+	}
+
+	@After
+	public void tearDown() {
+		LOGGER.setLevel(level);
+	}
+
+	/**
+	 * A callback implemented outside of the plugin, only knows about text.
+	 */
+	private static class TextCallback implements PriorityConfigurationCallback {
+
+		private final List<String> log = new ArrayList<String>();
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority) {
+			return this;
+		}
+
+		public PriorityConfigurationCallback setPrioritySelection(int priority, int jobGroupId, PriorityStrategy reason) {
+			return this;
+		}
+
+		public PriorityConfigurationCallback addDecisionLog(int indent, String log) {
+			this.log.add(indent + ":" + log);
+			return this;
+		}
+
+	}
+
+	@Test
+	public void testCodesRenderedWhenRead() {
+		ItemInfo itemInfo = new ItemInfo(1, 1000L, "job1");
+		DecisionLogCode.EVALUATING_VIEW.addTo(itemInfo, "All");
+		DecisionLogCode.GLOBAL_DEFAULT.addTo(itemInfo);
+		itemInfo.addDecisionLog(2, "Text");
+		Assert.assertEquals("    Evaluating View [All] ...\n  Assigning global default priority\n      Text\n",
+				itemInfo.getDescisionLog());
+	}
+
+	@Test
+	public void testTextCallback() {
+		TextCallback callback = new TextCallback();
+		DecisionLogCode.EVALUATING_VIEW.addTo(callback, "All");
+		DecisionLogCode.GLOBAL_DEFAULT.addTo(callback);
+		Assert.assertEquals("1:Evaluating View [All] ...", callback.log.get(0));
+		Assert.assertEquals("0:Assigning global default priority", callback.log.get(1));
+	}
+
+	@Test
+	public void testBoundedAndCleared() {
+		ItemInfo itemInfo = new ItemInfo(1, 1000L, "job1");
+		for (int i = 0; i < ItemInfo.MAX_DECISION_LOG_ENTRIES + 5; i++) {
+			DecisionLogCode.GLOBAL_DEFAULT.addTo(itemInfo);
+		}
+		Assert.assertTrue(itemInfo.getDescisionLog().endsWith("  ... 5 more\n"));
+		itemInfo.clearDecisionLog();
+		Assert.assertEquals("", itemInfo.getDescisionLog());
+		DecisionLogCode.GLOBAL_DEFAULT.addTo(itemInfo);
+		Assert.assertEquals("", itemInfo.getDescisionLog());
+	}
+
+	@Test
+	public void testNotRecordedWhenNotLogged() {
+		LOGGER.setLevel(Level.INFO);
+		ItemInfo itemInfo = new ItemInfo(1, 1000L, "job1");
+		DecisionLogCode.GLOBAL_DEFAULT.addTo(itemInfo);
+		Assert.assertEquals("", itemInfo.getDescisionLog());
+	}
+
+}
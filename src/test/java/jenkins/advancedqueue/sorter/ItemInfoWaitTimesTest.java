@@ -0,0 +1,66 @@
+package jenkins.advancedqueue.sorter;
+
+import jenkins.advancedqueue.metrics.WaitTimes;
+import jenkins.advancedqueue.metrics.WaitTimes.WaitTime;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ItemInfoWaitTimesTest {
+
+	@After
+	public void tearDown() {
+		WaitTimes.get().clear();
+	}
+
+	@Test
+	public void testTransitionTimestamps() {
+		long before = System.currentTimeMillis();
+		ItemInfo itemInfo = new ItemInfo(1, before - 1000, "job");
+		Assert.assertEquals(0, itemInfo.getBuildableSince());
+		Assert.assertEquals(0, itemInfo.getBlockedSince());
+		Assert.assertEquals(0, itemInfo.getLeftAt());
+		itemInfo.setBlocked();
+		itemInfo.setBuildable();
+		long buildableSince = itemInfo.getBuildableSince();
+		itemInfo.setBlocked();
+		itemInfo.setBuildable();
+		itemInfo.setLeft();
+		Assert.assertTrue(itemInfo.getBlockedSince() >= before);
+		Assert.assertTrue(buildableSince >= itemInfo.getBlockedSince());
+		// Only the first transition is kept
+		Assert.assertEquals(buildableSince, itemInfo.getBuildableSince());
+		Assert.assertTrue(itemInfo.getLeftAt() >= buildableSince);
+	}
+
+	@Test
+	public void testRecordPerPriorityAndJobGroup() {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			ItemInfo itemInfo = new ItemInfo(i, now - 1000 * (i + 1), "job" + i);
+			itemInfo.setPrioritySelection(i % 2 + 1, i % 2 == 0 ? 3 : -1, null);
+			itemInfo.setBuildable();
+			itemInfo.setLeft();
+			WaitTimes.get().record(itemInfo);
+		}
+		// Items that have not left are ignored
+		WaitTimes.get().record(new ItemInfo(11, now, "job11"));
+
+		Assert.assertEquals(2, WaitTimes.get().getPerPriority().size());
+		WaitTime priority1 = WaitTimes.get().getPerPriority().get(1);
+		Assert.assertEquals(5, priority1.getQueueTime().getCount());
+		Assert.assertEquals(5, priority1.getBuildableTime().getCount());
+		Assert.assertEquals(0, priority1.getBlockedTime().getCount());
+		Assert.assertTrue(priority1.getQueueTime().getMax() >= 9000);
+		Assert.assertTrue(priority1.getQueueTime().getPercentile(50) >= 5000);
+
+		Assert.assertEquals(5, WaitTimes.get().getPerJobGroup().get(3).getQueueTime().getCount());
+		Assert.assertEquals(5, WaitTimes.get().getPerJobGroup().get(-1).getQueueTime().getCount());
+
+		WaitTimes.get().clearPerJobGroup();
+		Assert.assertTrue(WaitTimes.get().getPerJobGroup().isEmpty());
+		Assert.assertEquals(2, WaitTimes.get().getPerPriority().size());
+	}
+
+}
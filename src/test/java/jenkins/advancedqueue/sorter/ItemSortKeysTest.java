@@ -0,0 +1,61 @@
+package jenkins.advancedqueue.sorter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ItemSortKeysTest {
+
+	@Test
+	public void testSortOrder() {
+		ItemSortKeys keys = new ItemSortKeys(6);
+		keys.add(2F, 100L, 5);
+		keys.add(1F, 300L, 6);
+		keys.add(2F, 100L, 3);
+		keys.add(-1F, 500L, 7);
+		keys.add(2F, 50L, 9);
+		keys.add(1F, Long.MAX_VALUE, 1);
+		Assert.assertArrayEquals(new int[] { 3, 1, 5, 4, 2, 0 }, keys.sort());
+	}
+
+	@Test
+	public void testInQueueSinceDoesNotOverflow() {
+		ItemSortKeys keys = new ItemSortKeys(2);
+		keys.add(0F, Long.MAX_VALUE, 1);
+		keys.add(0F, 0L, 2);
+		Assert.assertArrayEquals(new int[] { 1, 0 }, keys.sort());
+	}
+
+	@Test
+	public void testSortLargeBatch() {
+		Random random = new Random(4711);
+		int size = 5000;
+		ItemSortKeys keys = new ItemSortKeys(size);
+		long[] expected = new long[size];
+		for (int i = 0; i < size; i++) {
+			int weight = random.nextInt(5);
+			int since = random.nextInt(100);
+			keys.add(weight, since, i);
+			expected[i] = ((long) weight << 40) | ((long) since << 20) | i;
+		}
+		Arrays.sort(expected);
+		int[] order = keys.sort();
+		for (int i = 0; i < size; i++) {
+			Assert.assertEquals(expected[i] & 0xFFFFF, order[i]);
+		}
+	}
+
+	@Test
+	public void testPermute() {
+		List<String> list = new ArrayList<String>(Arrays.asList("a", "b", "c", "d", "e"));
+		int[] order = new int[] { 4, 2, 3, 0, 1 };
+		ItemSortKeys.permute(list, order);
+		Assert.assertEquals(Arrays.asList("e", "c", "d", "a", "b"), list);
+		Assert.assertArrayEquals(new int[] { 4, 2, 3, 0, 1 }, order);
+	}
+
+}
@@ -0,0 +1,153 @@
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Queue.Item;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriorityEvaluatorTest {
+
+	/**
+	 * Runs the submitted evaluations when told to.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void run(int index) {
+			tasks.get(index).run();
+		}
+
+	}
+
+	/**
+	 * Gives every item the priority of its id and assigns increasing weights like a fair queue.
+	 */
+	private static class TestEvaluator extends PriorityEvaluator {
+
+		private final List<Integer> evaluated = new ArrayList<Integer>();
+
+		private final List<Integer> assigned = new ArrayList<Integer>();
+
+		TestEvaluator(Executor executor) {
+			super(executor);
+		}
+
+		@Override
+		ItemInfo evaluate(Item item, ItemInfo provisional) {
+			synchronized (evaluated) {
+				evaluated.add(provisional.getItemId());
+			}
+			ItemInfo itemInfo = new ItemInfo(provisional.getItemId(), provisional.getInQueueSince(), provisional.getJobName());
+			itemInfo.setPrioritySelection(provisional.getItemId());
+			return itemInfo;
+		}
+
+		@Override
+		void assign(Item item, ItemInfo provisional, ItemInfo evaluated) {
+			assigned.add(provisional.getItemId());
+			provisional.copyEvaluation(evaluated);
+			QueueItemCache.get().updateWeight(provisional, assigned.size());
+		}
+
+	}
+
+	private static ItemInfo createProvisional(int itemId) {
+		ItemInfo provisional = new ItemInfo(itemId, 1000L + itemId, "job" + itemId);
+		provisional.setWeightSelection(PriorityEvaluator.PROVISIONAL_WEIGHT);
+		return provisional;
+	}
+
+	@After
+	public void tearDown() {
+		for (int itemId : QueueItemCache.get().getSortedItemIds()) {
+			QueueItemCache.get().removeItem(itemId);
+		}
+	}
+
+	@Test
+	public void testWeightsAssignedInArrivalOrder() {
+		ManualExecutor executor = new ManualExecutor();
+		TestEvaluator evaluator = new TestEvaluator(executor);
+		evaluator.submit(null, createProvisional(1), null);
+		evaluator.submit(null, createProvisional(2), null);
+		evaluator.submit(null, createProvisional(3), null);
+		Assert.assertArrayEquals(new int[] { 1, 2, 3 }, QueueItemCache.get().getSortedItemIds());
+		// Evaluations finishing out of order are not published before the earlier items
+		executor.run(2);
+		executor.run(1);
+		evaluator.publishEvaluated();
+		Assert.assertTrue(evaluator.assigned.isEmpty());
+		executor.run(0);
+		evaluator.publishEvaluated();
+		Assert.assertEquals(3, evaluator.evaluated.size());
+		Assert.assertEquals(Arrays.asList(1, 2, 3), evaluator.assigned);
+		Assert.assertEquals(0, evaluator.getPendingCount());
+		Assert.assertArrayEquals(new int[] { 1, 2, 3 }, QueueItemCache.get().getSortedItemIds());
+		Assert.assertEquals(3, QueueItemCache.get().getItem(3).getPriority());
+	}
+
+	@Test
+	public void testPublishEvaluatesEarlierItemsDirectly() {
+		ManualExecutor executor = new ManualExecutor();
+		TestEvaluator evaluator = new TestEvaluator(executor);
+		evaluator.submit(null, createProvisional(1), null);
+		evaluator.submit(null, createProvisional(2), null);
+		evaluator.submit(null, createProvisional(3), null);
+		executor.run(1);
+		// Item 2 becomes buildable before item 1 is evaluated, nothing waits for the workers
+		evaluator.publish(2);
+		Assert.assertEquals(Arrays.asList(1, 2), evaluator.assigned);
+		Assert.assertEquals(1, evaluator.getPendingCount());
+		Assert.assertEquals(PriorityEvaluator.PROVISIONAL_WEIGHT, QueueItemCache.get().getItem(3).getExactWeight(), 0D);
+	}
+
+	@Test
+	public void testLateWorkerIsIgnored() {
+		ManualExecutor executor = new ManualExecutor();
+		TestEvaluator evaluator = new TestEvaluator(executor);
+		ItemInfo provisional = createProvisional(1);
+		provisional.setBuildable();
+		long buildableSince = provisional.getBuildableSince();
+		evaluator.submit(null, provisional, null);
+		// The queue thread publishes while the evaluation is still queued or running
+		evaluator.publish(1);
+		executor.run(0);
+		evaluator.publish(1);
+		evaluator.publishEvaluated();
+		Assert.assertEquals(Arrays.asList(1), evaluator.assigned);
+		Assert.assertEquals(Arrays.asList(1), evaluator.evaluated);
+		// The cached instance is kept with what was recorded about it
+		Assert.assertSame(provisional, QueueItemCache.get().getItem(1));
+		Assert.assertEquals(buildableSince, provisional.getBuildableSince());
+		Assert.assertEquals(1D, provisional.getExactWeight(), 0D);
+	}
+
+	@Test
+	public void testCancel() {
+		ManualExecutor executor = new ManualExecutor();
+		TestEvaluator evaluator = new TestEvaluator(executor);
+		evaluator.submit(null, createProvisional(1), null);
+		ItemInfo evaluated = createProvisional(2);
+		evaluated.setPrioritySelection(2);
+		evaluator.submit(null, createProvisional(2), evaluated);
+		QueueItemCache.get().removeItem(1);
+		evaluator.cancel(1);
+		Assert.assertEquals(Arrays.asList(2), evaluator.assigned);
+		executor.run(0);
+		evaluator.publishEvaluated();
+		Assert.assertEquals(Arrays.asList(2), evaluator.assigned);
+		Assert.assertTrue(evaluator.evaluated.isEmpty());
+	}
+
+}
@@ -0,0 +1,169 @@
+package jenkins.advancedqueue.sorter;
+
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueueItemCacheTest {
+
+	private static ItemInfo createItem(int itemId, double weight) {
+		ItemInfo itemInfo = new ItemInfo(itemId, 1000L + itemId, "job" + itemId);
+		itemInfo.setWeightSelection(weight);
+		return itemInfo;
+	}
+
+	private static ItemInfo createItem(int itemId, long inQueueSince, double weight) {
+		ItemInfo itemInfo = new ItemInfo(itemId, inQueueSince, "job" + itemId);
+		itemInfo.setWeightSelection(weight);
+		return itemInfo;
+	}
+
+	private static int[] getItemIds(Collection<ItemInfo> items) {
+		int[] itemIds = new int[items.size()];
+		int i = 0;
+		for (ItemInfo itemInfo : items) {
+			itemIds[i++] = itemInfo.getItemId();
+		}
+		return itemIds;
+	}
+
+	@After
+	public void tearDown() {
+		for (int itemId : QueueItemCache.get().getSortedItemIds()) {
+			QueueItemCache.get().removeItem(itemId);
+		}
+	}
+
+	@Test
+	public void testOrderedByWeightInQueueSinceAndItemId() {
+		QueueItemCache cache = QueueItemCache.get();
+		cache.addItem(createItem(5, 100L, 2D));
+		cache.addItem(createItem(4, 200L, 1D));
+		cache.addItem(createItem(3, 100L, 1D));
+		cache.addItem(createItem(2, 100L, 1D));
+		cache.addItem(createItem(1, 50L, 3D));
+		int[] expected = new int[] { 2, 3, 4, 5, 1 };
+		Assert.assertArrayEquals(expected, cache.getSortedItemIds());
+		Assert.assertArrayEquals(expected, getItemIds(cache.getSortedItems(null)));
+		Assert.assertArrayEquals(expected, getItemIds(cache.getSortedList()));
+		Assert.assertArrayEquals(new int[] { 5, 1 }, getItemIds(cache.getSortedItems(cache.getItem(4))));
+	}
+
+	@Test
+	public void testAddAndRemove() {
+		QueueItemCache cache = QueueItemCache.get();
+		ItemInfo first = cache.addItem(createItem(1, 1D));
+		cache.addItem(createItem(2, 2D));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertSame(first, cache.getItem(1));
+		// Adding an item again replaces it and moves it to the position of its new weight
+		ItemInfo replacement = cache.addItem(createItem(1, 3D));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertSame(replacement, cache.getItem(1));
+		Assert.assertArrayEquals(new int[] { 2, 1 }, cache.getSortedItemIds());
+		Assert.assertSame(replacement, cache.removeItem(1));
+		Assert.assertNull(cache.getItem(1));
+		Assert.assertNull(cache.removeItem(1));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertArrayEquals(new int[] { 2 }, cache.getSortedItemIds());
+	}
+
+	@Test
+	public void testUpdateWeightMovesItem() {
+		QueueItemCache cache = QueueItemCache.get();
+		ItemInfo first = cache.addItem(createItem(1, 1D));
+		cache.addItem(createItem(2, 2D));
+		ItemInfo third = cache.addItem(createItem(3, 3D));
+		cache.updateWeight(first, 2.5D);
+		Assert.assertArrayEquals(new int[] { 2, 1, 3 }, cache.getSortedItemIds());
+		cache.updateWeight(third, 0.5D);
+		Assert.assertArrayEquals(new int[] { 3, 2, 1 }, cache.getSortedItemIds());
+		Assert.assertEquals(3, cache.size());
+		Assert.assertEquals(0.5D, cache.getItem(3).getExactWeight(), 0D);
+		// An item that is not in the cache gets its weight but is not added
+		ItemInfo notAdded = createItem(4, 4D);
+		cache.updateWeight(notAdded, 0.1D);
+		Assert.assertEquals(0.1D, notAdded.getExactWeight(), 0D);
+		Assert.assertNull(cache.getItem(4));
+		Assert.assertArrayEquals(new int[] { 3, 2, 1 }, cache.getSortedItemIds());
+	}
+
+	@Test
+	public void testGenerationChangesOnUpdates() {
+		QueueItemCache cache = QueueItemCache.get();
+		long generation = cache.getGeneration();
+		ItemInfo first = cache.addItem(createItem(1, 1D));
+		cache.addItem(createItem(2, 2D));
+		Assert.assertTrue(cache.getGeneration() > generation);
+
+		generation = cache.getGeneration();
+		Assert.assertNull(cache.removeItem(3));
+		Assert.assertEquals(generation, cache.getGeneration());
+
+		cache.updateWeight(first, 3D);
+		Assert.assertTrue(cache.getGeneration() > generation);
+		Assert.assertArrayEquals(new int[] { 2, 1 }, cache.getSortedItemIds());
+
+		generation = cache.getGeneration();
+		cache.removeItem(2);
+		Assert.assertTrue(cache.getGeneration() > generation);
+		Assert.assertArrayEquals(new int[] { 1 }, cache.getSortedItemIds());
+	}
+
+	@Test
+	public void testRebaseWeights() {
+		QueueItemCache cache = QueueItemCache.get();
+		ItemInfo first = cache.addItem(createItem(1, 10D));
+		cache.addItem(createItem(2, 20D));
+		Collection<ItemInfo> before = cache.getSortedItems(null);
+		cache.rebaseWeights(5D);
+		Assert.assertEquals(5D, cache.getItem(1).getExactWeight(), 0D);
+		Assert.assertEquals(15D, cache.getItem(2).getExactWeight(), 0D);
+		Assert.assertArrayEquals(new int[] { 1, 2 }, cache.getSortedItemIds());
+		// Readers of the items from before the rebase see the weights from before the rebase
+		Assert.assertEquals(10D, first.getExactWeight(), 0D);
+		Assert.assertEquals(10D, before.iterator().next().getExactWeight(), 0D);
+		// Updates through an item from before the rebase change the cached item
+		cache.updateWeight(first, 30D);
+		Assert.assertEquals(30D, cache.getItem(1).getExactWeight(), 0D);
+		Assert.assertArrayEquals(new int[] { 2, 1 }, cache.getSortedItemIds());
+		cache.removeItem(1);
+		Assert.assertArrayEquals(new int[] { 2 }, cache.getSortedItemIds());
+	}
+
+	@Test
+	public void testRebaseCoversItemsNotYetAdded() {
+		QueueItemCache cache = QueueItemCache.get();
+		cache.addItem(createItem(1, 10D));
+		// Assigned a weight, for example restored at startup or evaluated, but not yet added
+		ItemInfo notAdded = createItem(2, 20D);
+		cache.rebaseWeights(5D);
+		Assert.assertEquals(15D, cache.getRebasedWeight(notAdded), 0D);
+		cache.rebaseWeights(2D);
+		cache.addItem(notAdded);
+		Assert.assertEquals(13D, cache.getItem(2).getExactWeight(), 0D);
+		Assert.assertEquals(3D, cache.getItem(1).getExactWeight(), 0D);
+		// Not rebased twice
+		cache.addItem(notAdded);
+		Assert.assertEquals(13D, cache.getItem(2).getExactWeight(), 0D);
+	}
+
+	@Test
+	public void testRebaseKeepsProvisionalItems() {
+		QueueItemCache cache = QueueItemCache.get();
+		ItemInfo provisional = cache.addItem(createItem(1, PriorityEvaluator.PROVISIONAL_WEIGHT));
+		cache.addItem(createItem(2, 20D));
+		cache.rebaseWeights(5D);
+		Assert.assertSame(provisional, cache.getItem(1));
+		Assert.assertEquals(PriorityEvaluator.PROVISIONAL_WEIGHT, provisional.getExactWeight(), 0D);
+		// Published after the rebase with a weight assigned before it
+		ItemInfo evaluated = createItem(1, 30D);
+		cache.rebaseWeights(5D);
+		cache.updateWeight(provisional, cache.getRebasedWeight(evaluated));
+		Assert.assertEquals(25D, cache.getItem(1).getExactWeight(), 0D);
+		Assert.assertArrayEquals(new int[] { 2, 1 }, cache.getSortedItemIds());
+	}
+
+}
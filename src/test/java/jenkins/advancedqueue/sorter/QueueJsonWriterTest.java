@@ -0,0 +1,73 @@
+package jenkins.advancedqueue.sorter;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import jenkins.advancedqueue.sorter.QueueJsonWriter.Field;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueueJsonWriterTest {
+
+	private static List<ItemInfo> createItems(int count) {
+		List<ItemInfo> items = new ArrayList<ItemInfo>();
+		for (int i = 0; i < count; i++) {
+			ItemInfo itemInfo = new ItemInfo(i + 1, 1000L + i, "job" + i);
+			itemInfo.setPrioritySelection(3);
+			items.add(itemInfo);
+		}
+		return items;
+	}
+
+	private static String write(List<ItemInfo> items, String fields, int start, int limit) throws Exception {
+		StringWriter out = new StringWriter();
+		new QueueJsonWriter(Field.parse(fields), start, limit).write(items, out);
+		return out.toString();
+	}
+
+	@Test
+	public void testPage() throws Exception {
+		Assert.assertEquals(
+				"{\"items\":[{\"itemId\":2,\"jobName\":\"job1\"},{\"itemId\":3,\"jobName\":\"job2\"}],\"start\":1,\"count\":2,\"next\":3}",
+				write(createItems(5), "itemId,jobName", 1, 2));
+	}
+
+	@Test
+	public void testLastPage() throws Exception {
+		Assert.assertEquals("{\"items\":[{\"priority\":3}],\"start\":2,\"count\":1,\"next\":null}",
+				write(createItems(3), "priority", 2, 10));
+		Assert.assertEquals("{\"items\":[],\"start\":5,\"count\":0,\"next\":null}", write(createItems(3), "priority", 5, 10));
+	}
+
+	@Test
+	public void testFields() {
+		Assert.assertEquals(EnumSet.allOf(Field.class), Field.parse(null));
+		Assert.assertEquals(EnumSet.of(Field.WEIGHT, Field.STATUS), Field.parse("status, weight"));
+		try {
+			Field.parse("itemId,unknown");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFilteredItemsAreNotWrittenOrCounted() throws Exception {
+		QueueJsonWriter.ItemFilter evenItems = new QueueJsonWriter.ItemFilter() {
+			public boolean isVisible(ItemInfo itemInfo) {
+				return itemInfo.getItemId() % 2 == 0;
+			}
+		};
+		StringWriter out = new StringWriter();
+		new QueueJsonWriter(Field.parse("itemId"), 1, 2).write(createItems(7), evenItems, out);
+		Assert.assertEquals("{\"items\":[{\"itemId\":4},{\"itemId\":6}],\"start\":1,\"count\":2,\"next\":null}",
+				out.toString());
+		out = new StringWriter();
+		new QueueJsonWriter(Field.parse("itemId"), 0, 1).write(createItems(7), evenItems, out);
+		Assert.assertEquals("{\"items\":[{\"itemId\":2}],\"start\":0,\"count\":1,\"next\":2}", out.toString());
+	}
+
+}
@@ -0,0 +1,109 @@
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Descriptor;
+import hudson.model.Queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.advancedqueue.JobGroup;
+import jenkins.advancedqueue.priority.PriorityStrategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueueSnapshotTest {
+
+	private static class TestStrategy extends PriorityStrategy {
+
+		@Override
+		public boolean isApplicable(Queue.Item item) {
+			return true;
+		}
+
+		@Override
+		public int getPriority(Queue.Item item) {
+			return 1;
+		}
+
+		@Override
+		public void numberPrioritiesUpdates(int oldNumberOfPriorities, int newNumberOfPriorities) {
+		}
+
+		public Descriptor<PriorityStrategy> getDescriptor() {
+			return null;
+		}
+
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		PriorityStrategy strategy = new TestStrategy();
+		List<JobGroup.PriorityStrategyHolder> holders = Arrays.asList(new JobGroup.PriorityStrategyHolder(0,
+				new TestStrategy()), new JobGroup.PriorityStrategyHolder(1, strategy));
+		ItemInfo withStrategy = newItemInfo(1, "folder/a", 2, strategy, 12.5);
+		ItemInfo withoutStrategy = newItemInfo(2, "b", 3, null, 20);
+		QueueSnapshot snapshot = new QueueSnapshot("strategy", 5, new long[] { 7, 8 }, Arrays.asList(
+				new QueueSnapshot.Entry(withStrategy, QueueSnapshot.getStrategyId(holders, strategy)),
+				new QueueSnapshot.Entry(withoutStrategy, QueueSnapshot.getStrategyId(holders, null))));
+
+		QueueSnapshot read = writeAndRead(snapshot);
+		Assert.assertArrayEquals(new long[] { 7, 8 }, read.getStrategyState());
+		Map<Integer, QueueSnapshot.Entry> id2entry = read.getItems();
+		Assert.assertEquals(2, id2entry.size());
+		Assert.assertTrue(id2entry.get(1).matches(1, 1000L, "folder/a"));
+		Assert.assertFalse(id2entry.get(1).matches(1, 1001L, "folder/a"));
+		ItemInfo restored = id2entry.get(1).toItemInfo(holders);
+		Assert.assertEquals(2, restored.getPriority());
+		Assert.assertEquals(4, restored.getJobGroupId());
+		Assert.assertEquals(12.5, restored.getExactWeight(), 0);
+		Assert.assertSame(strategy, restored.getPriorityStrategy());
+		Assert.assertNull(id2entry.get(2).toItemInfo(holders).getPriorityStrategy());
+	}
+
+	@Test
+	public void testChangedStrategyIsNotRestored() throws IOException {
+		PriorityStrategy strategy = new TestStrategy();
+		List<JobGroup.PriorityStrategyHolder> holders = Arrays.asList(new JobGroup.PriorityStrategyHolder(3, strategy));
+		QueueSnapshot snapshot = new QueueSnapshot("strategy", 5, null, Arrays.asList(new QueueSnapshot.Entry(
+				newItemInfo(1, "a", 2, strategy, 1), 3)));
+		QueueSnapshot.Entry entry = writeAndRead(snapshot).getItems().get(1);
+		Assert.assertSame(strategy, entry.toItemInfo(holders).getPriorityStrategy());
+		// The JobGroup was changed or removed since the snapshot was saved
+		Assert.assertNull(entry.toItemInfo(null).getPriorityStrategy());
+		Assert.assertNull(entry.toItemInfo(
+				Arrays.asList(new JobGroup.PriorityStrategyHolder(4, strategy))).getPriorityStrategy());
+	}
+
+	@Test
+	public void testUnknownFormatIsRejected() {
+		try {
+			QueueSnapshot.read(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 })));
+			Assert.fail("An unknown format must not be read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private QueueSnapshot writeAndRead(QueueSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		snapshot.write(out);
+		out.close();
+		return QueueSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private ItemInfo newItemInfo(int itemId, String jobName, int priority, PriorityStrategy strategy, double weight) {
+		ItemInfo itemInfo = new ItemInfo(itemId, 1000L, jobName);
+		itemInfo.setPrioritySelection(priority, 4, strategy);
+		itemInfo.setWeightSelection(weight);
+		return itemInfo;
+	}
+
+}
@@ -0,0 +1,136 @@
+package jenkins.advancedqueue.sorter;
+
+import hudson.model.Queue;
+import hudson.model.Queue.LeftItem;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SorterStrategyTest {
+
+	private static abstract class TestStrategy extends SorterStrategy {
+
+		double startedWeight = -1;
+
+		@Override
+		public SorterStrategyCallback onNewItem(Queue.Item item, SorterStrategyCallback weightCallback) {
+			return weightCallback.setWeightSelection(1F);
+		}
+
+		@Override
+		public int getNumberOfPriorities() {
+			return 5;
+		}
+
+		@Override
+		public int getDefaultPriority() {
+			return 3;
+		}
+
+	}
+
+	private static class FloatStrategy extends TestStrategy {
+
+		@Override
+		@Deprecated
+		public void onStartedItem(LeftItem item, float weight) {
+			startedWeight = weight;
+		}
+
+	}
+
+	private static class SuperCallingFloatStrategy extends TestStrategy {
+
+		int started = 0;
+
+		@Override
+		@Deprecated
+		public void onStartedItem(LeftItem item, float weight) {
+			started++;
+			startedWeight = weight;
+			super.onStartedItem(item, weight);
+		}
+
+	}
+
+	private static class DoubleStrategy extends TestStrategy {
+
+		@Override
+		public void onStartedItem(LeftItem item, double weight) {
+			startedWeight = weight;
+		}
+
+	}
+
+	private static class NoStartedStrategy extends TestStrategy {
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testFloatStrategyCalledWithDouble() {
+		FloatStrategy strategy = new FloatStrategy();
+		strategy.onStartedItem(null, 2.5D);
+		Assert.assertEquals(2.5D, strategy.startedWeight, 0D);
+		strategy.onStartedItem(null, 3.5F);
+		Assert.assertEquals(3.5D, strategy.startedWeight, 0D);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testSuperCallingFloatStrategy() {
+		SuperCallingFloatStrategy strategy = new SuperCallingFloatStrategy();
+		strategy.onStartedItem(null, 2.5D);
+		Assert.assertEquals(1, strategy.started);
+		Assert.assertEquals(2.5D, strategy.startedWeight, 0D);
+		strategy.onStartedItem(null, 3.5F);
+		Assert.assertEquals(2, strategy.started);
+		Assert.assertEquals(3.5D, strategy.startedWeight, 0D);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDoubleStrategyCalledWithFloat() {
+		DoubleStrategy strategy = new DoubleStrategy();
+		strategy.onStartedItem(null, 2.5F);
+		Assert.assertEquals(2.5D, strategy.startedWeight, 0D);
+		strategy.onStartedItem(null, 3.5D);
+		Assert.assertEquals(3.5D, strategy.startedWeight, 0D);
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testNoOverride() {
+		NoStartedStrategy strategy = new NoStartedStrategy();
+		strategy.onStartedItem(null, 2.5F);
+		strategy.onStartedItem(null, 2.5D);
+		Assert.assertEquals(-1D, strategy.startedWeight, 0D);
+	}
+
+	@Test
+	public void testFloatWeightSelection() {
+		ItemInfo itemInfo = new ItemInfo(1, 1000L, "job1");
+		itemInfo.setWeightSelection(1.5F);
+		Assert.assertEquals(1.5D, itemInfo.getExactWeight(), 0D);
+		Assert.assertEquals(1.5F, itemInfo.getWeight(), 0F);
+	}
+
+	@Test
+	public void testSelectWeight() {
+		ItemInfo itemInfo = new ItemInfo(1, 1000L, "job1");
+		AbstractSorterStrategyCallback.selectWeight(itemInfo, 1.1D);
+		Assert.assertEquals(1.1D, itemInfo.getExactWeight(), 0D);
+		final float[] selected = new float[1];
+		AbstractSorterStrategyCallback.selectWeight(new SorterStrategyCallback() {
+			public int getPriority() {
+				return 1;
+			}
+
+			public SorterStrategyCallback setWeightSelection(float weight) {
+				selected[0] = weight;
+				return this;
+			}
+		}, 1.1D);
+		Assert.assertEquals(1.1F, selected[0], 0F);
+	}
+
+}
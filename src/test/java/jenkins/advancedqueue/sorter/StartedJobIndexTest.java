@@ -0,0 +1,59 @@
+package jenkins.advancedqueue.sorter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StartedJobIndexTest {
+
+	@Test
+	public void testEvictsOldestUnreadEntry() {
+		StartedJobIndex index = new StartedJobIndex(3);
+		index.put("a", newItemInfo(1));
+		index.put("b", newItemInfo(2));
+		index.put("c", newItemInfo(3));
+		// a gets a second chance since it has been read
+		Assert.assertEquals(1, index.get("a").getPriority());
+		index.put("d", newItemInfo(4));
+		Assert.assertEquals(3, index.size());
+		Assert.assertEquals(1, index.getEvictions());
+		Assert.assertNotNull(index.get("a"));
+		Assert.assertNull(index.get("b"));
+		Assert.assertNotNull(index.get("c"));
+		Assert.assertNotNull(index.get("d"));
+	}
+
+	@Test
+	public void testReplaceKeepsSize() {
+		StartedJobIndex index = new StartedJobIndex(2);
+		index.put("folder/a", newItemInfo(1));
+		index.put("folder/a", newItemInfo(2));
+		index.put("other/a", newItemInfo(3));
+		Assert.assertEquals(2, index.size());
+		Assert.assertEquals(0, index.getEvictions());
+		Assert.assertEquals(2, index.get("folder/a").getPriority());
+		Assert.assertEquals("other/a", index.get("other/a").getJobName());
+		index.remove("folder/a");
+		Assert.assertNull(index.get("folder/a"));
+		Assert.assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testRename() {
+		StartedJobIndex index = new StartedJobIndex(2);
+		index.put("folder/a", newItemInfo(1));
+		index.rename("folder/a", "folder/b");
+		index.rename("folder/missing", "folder/c");
+		Assert.assertNull(index.get("folder/a"));
+		Assert.assertNull(index.get("folder/c"));
+		Assert.assertEquals(1, index.get("folder/b").getPriority());
+		Assert.assertEquals("folder/b", index.get("folder/b").getJobName());
+		Assert.assertEquals(1, index.size());
+	}
+
+	private ItemInfo newItemInfo(int priority) {
+		ItemInfo itemInfo = new ItemInfo(priority, 0L, "job");
+		itemInfo.setPrioritySelection(priority, 1, null);
+		return itemInfo;
+	}
+
+}
@@ -1,5 +1,10 @@
 package jenkins.advancedqueue.sorter.strategy;
 
+import java.util.HashSet;
+import java.util.Set;
+
+import jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback;
+import jenkins.advancedqueue.sorter.SorterStrategyCallback;
 import jenkins.advancedqueue.sorter.strategy.FQBaseStrategy;
 import jenkins.advancedqueue.sorter.strategy.FQStrategy;
 
@@ -10,16 +15,144 @@ public class FQStrategyTest {
 
 	@Test
 	public void testStepSize() {
-		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(1), 0F);
-		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(2), 0F);
-		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(3), 0F);
-		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(4), 0F);
+		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(1));
+		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(2));
+		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(3));
+		Assert.assertEquals(FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getStepSize(4));
+	}
+
+	@Test
+	public void testGetTicksToUse() {
+		Assert.assertEquals(100000L + FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getTicksToUse(1, 100000L));
+		Assert.assertEquals(456456L + FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getTicksToUse(2, 456456L));
+	}
+
+	private static class Callback extends AbstractSorterStrategyCallback {
+
+		private final int priority;
+
+		private double weight;
+
+		Callback(int priority) {
+			this.priority = priority;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		@Override
+		public SorterStrategyCallback setWeightSelection(double weight) {
+			this.weight = weight;
+			return this;
+		}
+	}
+
+	private double onNewItem(FQBaseStrategy strategy, int priority) {
+		Callback callback = new Callback(priority);
+		strategy.onNewItem(null, callback);
+		return callback.weight;
+	}
+
+	@Test
+	public void testStateIsPerInstance() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		double first = onNewItem(strategy, 1);
+		Assert.assertTrue(onNewItem(strategy, 1) > first);
+		Assert.assertEquals(first, onNewItem(new FQStrategy(5, 3), 1), 0D);
+	}
+
+	@Test
+	public void testOnStartedItemRaisesMinimumWeight() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		onNewItem(strategy, 1);
+		strategy.onStartedItem(null, 10F);
+		Assert.assertTrue(onNewItem(strategy, 2) > 10F);
+		// Lower weights are ignored
+		strategy.onStartedItem(null, 2F);
+		Assert.assertTrue(onNewItem(strategy, 3) > 10F);
+	}
+
+	@Test
+	public void testRestoreState() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		onNewItem(strategy, 1);
+		onNewItem(strategy, 4);
+		strategy.onStartedItem(null, 2D);
+		FQStrategy restored = new FQStrategy(5, 3);
+		restored.setState(strategy.getState());
+		Assert.assertArrayEquals(strategy.getState(), restored.getState());
+		Assert.assertEquals(onNewItem(strategy, 1), onNewItem(restored, 1), 0D);
+		Assert.assertEquals(onNewItem(strategy, 4), onNewItem(restored, 4), 0D);
+	}
+
+	@Test
+	public void testGetWeightForPriorityKeepsTheClock() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		onNewItem(strategy, 2);
+		double weight = strategy.getWeightForPriority(null, 2);
+		Assert.assertEquals(weight, strategy.getWeightForPriority(null, 2), 0D);
+		Assert.assertEquals(weight, onNewItem(strategy, 2), 0D);
+		Assert.assertEquals(onNewItem(new FQStrategy(5, 3), 4), strategy.getWeightForPriority(null, 4), 0D);
+	}
+
+	@Test
+	public void testPriorityOutsideOfConfiguredRange() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		double first = onNewItem(strategy, 8);
+		Assert.assertTrue(onNewItem(strategy, 8) > first);
+	}
+
+	@Test
+	public void testConcurrentOnNewItemGivesUniqueWeights() throws InterruptedException {
+		final FQStrategy strategy = new FQStrategy(5, 3);
+		final Set<Double> weights = new HashSet<Double>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						double weight = onNewItem(strategy, 1);
+						synchronized (weights) {
+							weights.add(weight);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(4000, weights.size());
+	}
+
+	@Test
+	public void testWeightsStayDistinctAfterManySteps() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		strategy.onStartedItem(null, 1000000D);
+		double previous = onNewItem(strategy, 1);
+		for (int i = 0; i < 100000; i++) {
+			double weight = onNewItem(strategy, 1);
+			Assert.assertTrue(weight > previous);
+			previous = weight;
+		}
 	}
 
 	@Test
-	public void testGetWeightToUse() {
-		Assert.assertEquals(1.00000F + FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getWeightToUse(1, 1.00000F), 0F);
-		Assert.assertEquals(4.56456F + FQBaseStrategy.MIN_STEP_SIZE, new FQStrategy().getWeightToUse(2, 4.56456F), 0F);
+	public void testRenormalize() {
+		FQStrategy strategy = new FQStrategy(5, 3);
+		strategy.renormalizeThreshold = 10 * FQBaseStrategy.TICKS_PER_WEIGHT;
+		strategy.onStartedItem(null, 9D);
+		double queued = onNewItem(strategy, 2);
+		Assert.assertEquals(9.00001D, queued, 0D);
+		strategy.onStartedItem(null, 10D);
+		// Passes the threshold, the clock moves back by 9
+		Assert.assertEquals(1.00001D, onNewItem(strategy, 1), 1E-9);
+		// The last weight of priority 2 was behind the started items
+		Assert.assertEquals(1.00001D, onNewItem(strategy, 2), 1E-9);
+		Assert.assertEquals(1.00002D, onNewItem(strategy, 1), 1E-9);
 	}
 
 }
@@ -0,0 +1,104 @@
+package jenkins.advancedqueue.sorter.strategy;
+
+import java.util.concurrent.TimeUnit;
+
+import jenkins.advancedqueue.sorter.AbstractSorterStrategyCallback;
+import jenkins.advancedqueue.sorter.SorterStrategyCallback;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SEJFStrategyTest {
+
+	private static final double SHORT = TimeUnit.MINUTES.toMillis(2);
+
+	private static final double LONG = TimeUnit.HOURS.toMillis(2);
+
+	private static class Callback extends AbstractSorterStrategyCallback {
+
+		private final int priority;
+
+		private double weight;
+
+		Callback(int priority) {
+			this.priority = priority;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		@Override
+		public SorterStrategyCallback setWeightSelection(double weight) {
+			this.weight = weight;
+			return this;
+		}
+	}
+
+	private double onNewItem(SEJFStrategy strategy, int priority, double expectedDuration) {
+		Callback callback = new Callback(priority);
+		strategy.onNewItem(callback, expectedDuration);
+		return callback.weight;
+	}
+
+	@Test
+	public void testCost() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		Assert.assertEquals(600D, strategy.getCost(-1), 0D);
+		Assert.assertEquals(150D, strategy.getCost(SHORT), 0D);
+		Assert.assertEquals(2400D, strategy.getCost(LONG), 0D);
+	}
+
+	@Test
+	public void testPriorityBeforeDuration() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		Assert.assertTrue(onNewItem(strategy, 1, LONG) < onNewItem(strategy, 2, SHORT));
+	}
+
+	@Test
+	public void testShortJobsFirst() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		double longWeight = onNewItem(strategy, 3, LONG);
+		double unknownWeight = onNewItem(strategy, 3, -1);
+		double shortWeight = onNewItem(strategy, 3, SHORT);
+		Assert.assertTrue(shortWeight < unknownWeight);
+		Assert.assertTrue(unknownWeight < longWeight);
+	}
+
+	@Test
+	public void testLongJobsAge() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		double longWeight = onNewItem(strategy, 3, LONG);
+		int started = 0;
+		while (true) {
+			double shortWeight = onNewItem(strategy, 3, SHORT);
+			// Equal weights are ordered by inQueueSince
+			if (shortWeight >= longWeight) {
+				break;
+			}
+			strategy.onStartedItem(null, shortWeight);
+			started++;
+		}
+		// The long job waits for at most its cost in short jobs
+		Assert.assertEquals(15, started);
+	}
+
+	@Test
+	public void testGetWeightForPriority() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		strategy.onStartedItem(null, onNewItem(strategy, 2, SHORT));
+		double weight = strategy.getWeightForPriority(2, LONG);
+		Assert.assertEquals(weight, onNewItem(strategy, 2, LONG), 0D);
+		Assert.assertEquals(4 * SEJFStrategy.BUCKET_SPAN + 2400D, strategy.getWeightForPriority(4, LONG), 0D);
+	}
+
+	@Test
+	public void testRestoreState() {
+		SEJFStrategy strategy = new SEJFStrategy(5, 3, 10);
+		strategy.onStartedItem(null, onNewItem(strategy, 2, SHORT));
+		SEJFStrategy restored = new SEJFStrategy(5, 3, 10);
+		restored.setState(strategy.getState());
+		Assert.assertEquals(onNewItem(strategy, 2, LONG), onNewItem(restored, 2, LONG), 0D);
+	}
+
+}
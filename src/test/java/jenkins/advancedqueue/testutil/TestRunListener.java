@@ -11,8 +11,8 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import jenkins.advancedqueue.sorter.ItemInfo;
-import jenkins.advancedqueue.sorter.QueueItemCache;
+import jenkins.advancedqueue.sorter.StartedJobIndex;
+import jenkins.advancedqueue.sorter.StartedJobIndex.StartedJob;
 
 import org.junit.Assert;
 
@@ -21,21 +21,21 @@ public class TestRunListener extends RunListener<Run> {
 
 	private final static Logger LOGGER = Logger.getLogger(TestRunListener.class.getName());
 			
-	static private List<ItemInfo> actual;
+	static private List<StartedJob> actual;
 	static private ExpectedItem[] expected;
 	
 	static public void init(ExpectedItem...expected) {
 		TestRunListener.expected = expected;
-		actual = new ArrayList<ItemInfo>(expected.length);
+		actual = new ArrayList<StartedJob>(expected.length);
 	}
 	
 	@Override
 	public void onStarted(Run r, TaskListener listener) {
 		LOGGER.info("ON STARTED: " + r.getParent().getName());
-		LOGGER.info("ON STARTED: " + QueueItemCache.get());
-		LOGGER.info("ON STARTED: " + QueueItemCache.get().getItem(r.getParent().getName()));
+		LOGGER.info("ON STARTED: " + StartedJobIndex.get());
+		LOGGER.info("ON STARTED: " + StartedJobIndex.get().get(r.getParent().getFullName()));
 		try {
-			ItemInfo item = QueueItemCache.get().getItem(r.getParent().getName());
+			StartedJob item = StartedJobIndex.get().get(r.getParent().getFullName());
 			actual.add(item);
 		} catch(Throwable e) {
 			LOGGER.log(Level.INFO, "###########", e);			